@@ -0,0 +1,448 @@
+/**
+ * {@literal
+ * 
+ * Copyright (c) 2015 Egor Krasnopolin <egor.krasnopolin@googlemail.com>
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ * }
+ */
+package com.kry.copyutils;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-class metadata storage, which doesn't pin the classes.
+ * <p>
+ * Values of the classes, which are loaded by the library's class loader or
+ * its descendants, are kept in a {@link ClassValue}, so they are reachable
+ * only from their class and go away together with its class loader. Other
+ * classes (e.g. of the JDK) would keep the library's class loader reachable
+ * through such values, so their values are kept by the cache itself in a map
+ * with weak keys. Such a value may refer to its class, then the class stays
+ * loaded until the value is evicted.
+ * <p>
+ * The number of entries is bounded: when it's exceeded, the least recently
+ * used entries are evicted. Recency is tracked approximately, by the number
+ * of insertions made before the last access, so reading stays cheap.
+ * 
+ * @param <V>
+ *            type of the values
+ */
+final class ClassMetadataCache<V> {
+	/**
+	 * Share of the entries, which are evicted at once when the cache is full
+	 */
+	private final static int EVICTION_DIVISOR = 8;
+	/**
+	 * Class loader of the library, {@code null} for the bootstrap one
+	 */
+	private final static ClassLoader LIBRARY_LOADER = ClassMetadataCache.class.getClassLoader();
+	
+	/**
+	 * Name of the cache for the statistics
+	 */
+	private final String name;
+	/**
+	 * Maximum number of entries
+	 */
+	private volatile int maxSize;
+	/**
+	 * Values of the classes which keep the library's class loader reachable
+	 * anyway
+	 */
+	private final ClassValue<Holder<V>> values = new ClassValue<Holder<V>>() {
+		@Override
+		protected Holder<V> computeValue(Class<?> type) {
+			return new Holder<>();
+		}
+	};
+	/**
+	 * Values of the other classes, by weak {@link ClassKey}s
+	 */
+	private final Map<Object, Holder<V>> foreignValues = new ConcurrentHashMap<>();
+	/**
+	 * Classes which have a value, with the time of the last access. It doesn't
+	 * refer to the values, so it doesn't pin the classes.
+	 */
+	private final Map<Object, AccessTime> index = new ConcurrentHashMap<>();
+	/**
+	 * Queue of the keys whose classes are unloaded
+	 */
+	private final ReferenceQueue<Class<?>> unloaded = new ReferenceQueue<>();
+	/**
+	 * Incremented by every insertion
+	 */
+	private final AtomicLong clock = new AtomicLong();
+	/**
+	 * Number of the evicted entries
+	 */
+	private final AtomicLong evictions = new AtomicLong();
+	/**
+	 * Whether some thread is evicting the entries right now
+	 */
+	private final AtomicBoolean evicting = new AtomicBoolean();
+	
+	/**
+	 * Creates a new empty cache
+	 * 
+	 * @param name
+	 *            name of the cache for the statistics
+	 * @param maxSize
+	 *            maximum number of entries
+	 */
+	ClassMetadataCache(String name, int maxSize) {
+		this.name = name;
+		this.maxSize = maxSize;
+	}
+	
+	/**
+	 * Checks if the given {@code clazz} keeps the library's class loader
+	 * reachable: it's loaded by that loader or by its descendant
+	 * 
+	 * @param clazz
+	 *            the class
+	 * @return {@code true} if the values of the class can be kept in a
+	 *         {@link ClassValue}
+	 */
+	private static boolean pinsLibrary(Class<?> clazz) {
+		if (LIBRARY_LOADER == null) return true;
+		for (ClassLoader loader = clazz.getClassLoader(); loader != null; loader = loader
+		        .getParent()) {
+			if (loader == LIBRARY_LOADER) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Removes all the entries
+	 */
+	void clear() {
+		Iterator<Object> it = index.keySet().iterator();
+		while (it.hasNext()) {
+			Class<?> clazz = ((ClassKey) it.next()).get();
+			if (clazz != null && pinsLibrary(clazz)) values.remove(clazz);
+			it.remove();
+		}
+		foreignValues.clear();
+		purgeUnloaded();
+	}
+	
+	/**
+	 * Checks if the cache contains a value for the given {@code clazz}
+	 * 
+	 * @param clazz
+	 *            the class
+	 * @return {@code true} if there is a value
+	 */
+	boolean containsKey(Class<?> clazz) {
+		return get(clazz) != null;
+	}
+	
+	/**
+	 * Removes the holder of the given {@code clazz}, unless it's replaced
+	 * 
+	 * @param clazz
+	 *            the class
+	 * @param lastAccess
+	 *            access time of the removed holder
+	 */
+	private void detach(Class<?> clazz, AccessTime lastAccess) {
+		if (pinsLibrary(clazz)) {
+			if (values.get(clazz).lastAccess == lastAccess) values.remove(clazz);
+		} else {
+			Object key = new LookupKey(clazz);
+			Holder<V> holder = foreignValues.get(key);
+			if (holder != null && holder.lastAccess == lastAccess) {
+				foreignValues.remove(key, holder);
+			}
+		}
+	}
+	
+	/**
+	 * Evicts the least recently used entries, if the cache is full
+	 */
+	private void evictIfFull() {
+		int limit = maxSize;
+		if (index.size() <= limit || !evicting.compareAndSet(false, true)) return;
+		try {
+			// the access times change concurrently, so they're sorted as read
+			// once; a batch is evicted, so the sorting is amortized among
+			// insertions
+			Candidate[] candidates = new Candidate[index.size()];
+			int size = 0;
+			for (Entry<Object, AccessTime> entry : index.entrySet()) {
+				if (size == candidates.length) candidates = Arrays.copyOf(candidates, size * 2);
+				candidates[size++] = new Candidate((ClassKey) entry.getKey(), entry.getValue());
+			}
+			Arrays.sort(candidates, 0, size);
+			
+			int count = Math.min(size, Math.max(size - limit, limit / EVICTION_DIVISOR));
+			for (int i = 0; i < count; i++) {
+				Candidate eldest = candidates[i];
+				// the entry may be re-registered meanwhile
+				if (!index.remove(eldest.key, eldest.lastAccess)) continue;
+				Class<?> clazz = eldest.key.get();
+				if (clazz != null) detach(clazz, eldest.lastAccess);
+				evictions.incrementAndGet();
+			}
+		} finally {
+			evicting.set(false);
+		}
+	}
+	
+	/**
+	 * Returns the value of the given {@code clazz}
+	 * 
+	 * @param clazz
+	 *            the class
+	 * @return the value, or {@code null} if there is no value
+	 */
+	V get(Class<?> clazz) {
+		Holder<V> holder = holder(clazz, false);
+		if (holder == null) return null;
+		V value = holder.value;
+		if (value != null) {
+			long now = clock.get();
+			// don't write the same value, it's shared among threads
+			if (holder.lastAccess.value != now) holder.lastAccess.value = now;
+		}
+		return value;
+	}
+	
+	/**
+	 * Returns statistics of the cache
+	 * 
+	 * @return a snapshot of the statistics
+	 */
+	MetadataCacheStats getStats() {
+		purgeUnloaded();
+		return new MetadataCacheStats(name, index.size(), maxSize, evictions.get());
+	}
+	
+	/**
+	 * Returns the holder of the value of the given {@code clazz}
+	 * 
+	 * @param clazz
+	 *            the class
+	 * @param create
+	 *            whether to create the missing holder
+	 * @return the holder, or {@code null} if it's missing and isn't created
+	 */
+	private Holder<V> holder(Class<?> clazz, boolean create) {
+		if (pinsLibrary(clazz)) return values.get(clazz);
+		
+		Holder<V> holder = foreignValues.get(new LookupKey(clazz));
+		if (holder != null || !create) return holder;
+		Holder<V> newHolder = new Holder<>();
+		holder = foreignValues.putIfAbsent(new ClassKey(clazz, unloaded), newHolder);
+		return holder == null ? newHolder : holder;
+	}
+	
+	/**
+	 * Removes the entries of the unloaded classes
+	 */
+	private void purgeUnloaded() {
+		Object key;
+		while ((key = unloaded.poll()) != null) {
+			index.remove(key);
+			foreignValues.remove(key);
+		}
+	}
+	
+	/**
+	 * Sets the value of the given {@code clazz}
+	 * 
+	 * @param clazz
+	 *            the class
+	 * @param value
+	 *            the value, not {@code null}
+	 */
+	void put(Class<?> clazz, V value) {
+		Holder<V> holder;
+		do {
+			holder = holder(clazz, true);
+			holder.value = value;
+			register(clazz, holder);
+			// an eviction may have removed the holder meanwhile
+		} while (holder(clazz, false) != holder);
+	}
+	
+	/**
+	 * Sets the value of the given {@code clazz}, unless it's already set
+	 * 
+	 * @param clazz
+	 *            the class
+	 * @param value
+	 *            the value, not {@code null}
+	 * @return the previous value, or {@code null} if the given value is set
+	 */
+	V putIfAbsent(Class<?> clazz, V value) {
+		for (;;) {
+			Holder<V> holder = holder(clazz, true);
+			synchronized (holder) {
+				V previous = holder.value;
+				if (previous != null) return previous;
+				holder.value = value;
+			}
+			register(clazz, holder);
+			// an eviction may have removed the holder meanwhile
+			if (holder(clazz, false) == holder) return null;
+		}
+	}
+	
+	/**
+	 * Adds the holder of a newly set value to the index
+	 * 
+	 * @param clazz
+	 *            the class
+	 * @param holder
+	 *            holder of its value
+	 */
+	private void register(Class<?> clazz, Holder<V> holder) {
+		holder.lastAccess.value = clock.incrementAndGet();
+		if (index.put(new ClassKey(clazz, unloaded), holder.lastAccess) == null) {
+			purgeUnloaded();
+			evictIfFull();
+		}
+	}
+	
+	/**
+	 * Removes the value of the given {@code clazz}
+	 * 
+	 * @param clazz
+	 *            the class
+	 */
+	void remove(Class<?> clazz) {
+		Object key = new LookupKey(clazz);
+		index.remove(key);
+		if (pinsLibrary(clazz)) {
+			values.remove(clazz);
+		} else {
+			foreignValues.remove(key);
+		}
+	}
+	
+	/**
+	 * Returns the maximum number of entries
+	 * 
+	 * @return maximum number of entries
+	 */
+	int getMaxSize() {
+		return maxSize;
+	}
+	
+	/**
+	 * Sets the maximum number of entries, evicting the exceeding ones
+	 * 
+	 * @param maxSize
+	 *            maximum number of entries
+	 */
+	void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		evictIfFull();
+	}
+	
+	/**
+	 * Value of a class with the time of its last access
+	 */
+	private final static class Holder<V> {
+		volatile V value;
+		final AccessTime lastAccess = new AccessTime();
+	}
+	
+	/**
+	 * Time of the last access to a value, measured by the clock of the cache
+	 */
+	private final static class AccessTime {
+		volatile long value;
+	}
+	
+	/**
+	 * Entry of the index considered for the eviction, with its access time
+	 * read once
+	 */
+	private final static class Candidate implements Comparable<Candidate> {
+		final ClassKey key;
+		final AccessTime lastAccess;
+		final long access;
+		
+		Candidate(ClassKey key, AccessTime lastAccess) {
+			this.key = key;
+			this.lastAccess = lastAccess;
+			access = lastAccess.value;
+		}
+		
+		@Override
+		public int compareTo(Candidate other) {
+			return Long.compare(access, other.access);
+		}
+	}
+	
+	/**
+	 * Weak key of a class, compared by the identity of the class
+	 */
+	private final static class ClassKey extends WeakReference<Class<?>> {
+		final private int hash;
+		
+		ClassKey(Class<?> clazz, ReferenceQueue<Class<?>> queue) {
+			super(clazz, queue);
+			hash = System.identityHashCode(clazz);
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			Class<?> clazz = get();
+			if (clazz == null) return false;
+			if (obj instanceof LookupKey) return clazz == ((LookupKey) obj).clazz;
+			return obj instanceof ClassKey && clazz == ((ClassKey) obj).get();
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+	
+	/**
+	 * Strong key of a class for the lookups, equal to the {@link ClassKey} of
+	 * the same class
+	 */
+	private final static class LookupKey {
+		final private Class<?> clazz;
+		
+		LookupKey(Class<?> clazz) {
+			this.clazz = clazz;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof ClassKey) return clazz == ((ClassKey) obj).get();
+			return obj instanceof LookupKey && clazz == ((LookupKey) obj).clazz;
+		}
+		
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(clazz);
+		}
+	}
+}
@@ -19,58 +19,189 @@
  */
 package com.kry.copyutils;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public final class CopyUtils {
 	/**
-	 * Map for mapping object references between <i>original</i> and
-	 * <i>clone</i>
+	 * State of the copying running in the current thread
 	 */
-	private final static ThreadLocal<Map<String, Object>> references = new ThreadLocal<>();
+	private final static ThreadLocal<CopyContext> context = new ThreadLocal<>();
 	
 	private final static Logger log = Logger.getLogger(CopyUtils.class.getPackage().getName());
 	
 	/**
-	 * Map which contains a default wrapped values for a primitive types
+	 * Map which contains a default wrapped values for a primitive types,
+	 * unmodifiable after the initialization
 	 */
-	private final static Map<Class<?>, Object> primitiveWrappersMap = new HashMap<>();
+	private final static Map<Class<?>, Object> primitiveWrappersMap;
 	/**
-	 * An uninstantiable classes
+	 * An uninstantiable classes, unmodifiable after the initialization
 	 */
-	private final static Set<Class<?>> uninstantiableClasses = new HashSet<>();
+	private final static Set<Class<?>> uninstantiableClasses;
+	
+	/**
+	 * Non-virtual handle of the {@code Object.clone()}, used for the shallow
+	 * copying of a {@code Cloneable} objects. It's {@code null} if the
+	 * {@code Object.clone()} isn't accessible.
+	 */
+	private final static MethodHandle nativeClone = findNativeClone();
+	/**
+	 * Loader of the JDK classes which aren't loaded by the bootstrap loader
+	 */
+	private final static ClassLoader PLATFORM_LOADER = ClassLoader.getPlatformClassLoader();
+	/**
+	 * Default maximum number of classes in a metadata cache
+	 */
+	private final static int DEFAULT_METADATA_CACHE_SIZE = 4096;
+	
+	/**
+	 * Cached accessible instance fields of the classes
+	 */
+	private final static ClassMetadataCache<Field[]> fieldsCache = new ClassMetadataCache<>(
+	        "fields", DEFAULT_METADATA_CACHE_SIZE);
+	/**
+	 * Cached reference fields of the classes, which have to be patched after
+	 * the shallow copying of a {@code Cloneable} objects. A class without them
+	 * is a leaf for the cycle detection.
+	 */
+	private final static ClassMetadataCache<Field[]> referenceFields = new ClassMetadataCache<>(
+	        "referenceFields", DEFAULT_METADATA_CACHE_SIZE);
+	/**
+	 * Constructors which have worked for the reflective copying of the classes
+	 */
+	private final static ClassMetadataCache<Constructor<?>> constructorsCache =
+	        new ClassMetadataCache<>("constructors", DEFAULT_METADATA_CACHE_SIZE);
+	/**
+	 * Numbers of the reflective copies per class, for the not yet promoted
+	 * classes
+	 */
+	private final static ClassMetadataCache<AtomicInteger> copyCounts = new ClassMetadataCache<>(
+	        "copyCounts", DEFAULT_METADATA_CACHE_SIZE);
+	/**
+	 * Specialized copiers of the promoted classes
+	 */
+	private final static ClassMetadataCache<ClassCopier> copiers = new ClassMetadataCache<>(
+	        "copiers", DEFAULT_METADATA_CACHE_SIZE);
+	/**
+	 * All the metadata caches
+	 */
+	private final static List<ClassMetadataCache<?>> metadataCaches = Collections
+	        .<ClassMetadataCache<?>> unmodifiableList(Arrays.asList(fieldsCache, referenceFields,
+	                constructorsCache, copyCounts, copiers));
+	
+	/**
+	 * Maximum number of copy tasks waiting in the queue of the default
+	 * asynchronous executor
+	 */
+	private final static int DEFAULT_ASYNC_QUEUE_CAPACITY = 1024;
+	/**
+	 * Seconds an idle thread of the asynchronous executor is kept alive
+	 */
+	private final static long ASYNC_KEEP_ALIVE_SECONDS = 60L;
+	
+	/**
+	 * Whether {@link #deepCopyTree(Object)} checks the graph for cycles
+	 */
+	private final static boolean DETECT_CYCLES_IN_TREE = CopyUtils.class
+	        .desiredAssertionStatus();
+	
+	/**
+	 * Number of optimistic reads of an object in the snapshot mode, before
+	 * the read lock is taken
+	 */
+	private final static int MAX_OPTIMISTIC_READS = 3;
+	
+	/**
+	 * Default number of reflective copies of a class before its promotion
+	 */
+	private final static int DEFAULT_PROMOTION_THRESHOLD = 1000;
+	/**
+	 * Maximum number of classes waiting for the promotion
+	 */
+	private final static int PROMOTION_QUEUE_CAPACITY = 64;
+	/**
+	 * Copy count of a class whose promotion is started
+	 */
+	private final static int PROMOTION_STARTED = -1;
+	
+	/**
+	 * Number of reflective copies of a class before its promotion
+	 */
+	private static volatile int promotionThreshold = DEFAULT_PROMOTION_THRESHOLD;
+	
+	/**
+	 * Order in which objects of a graph are copied
+	 */
+	private static volatile TraversalOrder traversalOrder = TraversalOrder.DEPTH_FIRST;
+	
+	/**
+	 * Executor used by {@link #deepCopyAsync(Object)}, created lazily
+	 */
+	private static volatile Executor asyncExecutor;
 	
 	static {
-		primitiveWrappersMap.put(boolean.class, Boolean.FALSE);
-		primitiveWrappersMap.put(byte.class, (byte) 0);
-		primitiveWrappersMap.put(short.class, (short) 0);
-		primitiveWrappersMap.put(char.class, (char) 0);
-		primitiveWrappersMap.put(int.class, 0);
-		primitiveWrappersMap.put(long.class, 0L);
-		primitiveWrappersMap.put(float.class, 0f);
-		primitiveWrappersMap.put(double.class, (double) 0);
+		Map<Class<?>, Object> wrappers = new HashMap<>();
+		wrappers.put(boolean.class, Boolean.FALSE);
+		wrappers.put(byte.class, (byte) 0);
+		wrappers.put(short.class, (short) 0);
+		wrappers.put(char.class, (char) 0);
+		wrappers.put(int.class, 0);
+		wrappers.put(long.class, 0L);
+		wrappers.put(float.class, 0f);
+		wrappers.put(double.class, (double) 0);
+		primitiveWrappersMap = Collections.unmodifiableMap(wrappers);
 		
-		uninstantiableClasses.add(Class.class);
-		uninstantiableClasses.add(Void.class);
+		Set<Class<?>> uninstantiables = new HashSet<>();
+		uninstantiables.add(Class.class);
+		uninstantiables.add(Void.class);
+		uninstantiableClasses = Collections.unmodifiableSet(uninstantiables);
 	}
 	
 	/**
 	 * Add object references between <i>original</i> and <i>clone</i> to the
-	 * {@link #references} map.
+	 * references map of the current {@link #context}. In the tree mode only
+	 * the objects of the JDK collections are added, see
+	 * {@link #isTrackedInTree(Class)}.
 	 * 
 	 * @param original
 	 *            original object
@@ -78,8 +209,60 @@ public final class CopyUtils {
 	 *            clone object
 	 */
 	private static void addToReferencesMap(Object original, Object copy) {
-		String key = getUniqueName(original);
-		references.get().put(key, copy);
+		CopyContext ctx = context.get();
+		if (ctx.tree && !isTrackedInTree(original.getClass())) return;
+		ctx.references.put(original, copy);
+	}
+	
+	/**
+	 * Checks if the identities of the objects of the given class are tracked
+	 * in the tree mode. The JDK collections refer to their own internals more
+	 * than once, e.g. the nodes of a {@code LinkedList} or
+	 * {@code LinkedHashMap} are linked both ways and the cached key set of a
+	 * {@code HashMap} refers back to the map, so the classes of the
+	 * {@code java.util} packages loaded by the JDK are tracked.
+	 * 
+	 * @param clazz
+	 *            checked class
+	 * @return {@code true} if the objects of that class are tracked
+	 */
+	private static boolean isTrackedInTree(Class<?> clazz) {
+		ClassLoader loader = clazz.getClassLoader();
+		return (loader == null || loader == PLATFORM_LOADER)
+		        && clazz.getPackageName().startsWith("java.util");
+	}
+	
+	/**
+	 * Checks if an already visited object is an ancestor of the object whose
+	 * children are being copied. In the depth-first order only the ancestors
+	 * are kept as visited; in the breadth-first order the path to the root is
+	 * walked, so a shared object isn't taken for a cycle.
+	 * 
+	 * @param ctx
+	 *            state of the copying
+	 * @param obj
+	 *            visited object
+	 * @return {@code true} if the object is on the path to the root
+	 */
+	private static boolean isAncestor(CopyContext ctx, Object obj) {
+		if (ctx.pending == null) return true;
+		for (PendingCopy ancestor = ctx.current; ancestor != null; ancestor = ancestor.parent) {
+			if (ancestor.original == obj) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Checks if objects of the given class can't refer to other objects:
+	 * arrays of primitives and classes without reference fields
+	 * 
+	 * @param clazz
+	 *            checked class
+	 * @return {@code true} if that class is a leaf of any object graph
+	 */
+	private static boolean isLeaf(Class<?> clazz) {
+		if (clazz.isArray()) return clazz.getComponentType().isPrimitive();
+		return getReferenceFields(clazz).length == 0;
 	}
 	
 	/**
@@ -94,7 +277,9 @@ public final class CopyUtils {
 	}
 	
 	/**
-	 * Constructs a new object instance using the constructor of a given class
+	 * Constructs a new object instance using the constructor of a given class.
+	 * The constructor which has worked is remembered and tried first next
+	 * time.
 	 * 
 	 * @param clazz
 	 *            class of a new object
@@ -102,9 +287,20 @@ public final class CopyUtils {
 	 * @throws ReflectiveOperationException
 	 */
 	private static Object constractNewObject(Class<?> clazz) throws ReflectiveOperationException {
+		Constructor<?> working = constructorsCache.get(clazz);
+		if (working != null) {
+			try {
+				return working.newInstance(getDefaultArguments(working.getParameterTypes()));
+			} catch (ReflectiveOperationException e) {
+				// it doesn't work anymore, search again
+			}
+		}
+		
 		// try to use default constructor (it's cached in class)
 		try {
-			return clazz.newInstance();
+			Object obj = clazz.newInstance();
+			constructorsCache.put(clazz, clazz.getDeclaredConstructor());
+			return obj;
 		} catch (ReflectiveOperationException e) {
 			// do nothing
 		}
@@ -113,19 +309,14 @@ public final class CopyUtils {
 		Constructor<?>[] constructors = clazz.getDeclaredConstructors();
 		if (constructors.length > 0) {
             for (Constructor<?> constructor : constructors) {
-                Class<?>[] parameters = constructor.getParameterTypes();
-                Object[] args = new Object[parameters.length];
-
-                for (int i = 0; i < parameters.length; i++) {
-                    // null or a primitive defaults
-                    args[i] = parameters[i].isPrimitive() ? getPrimitiveDefault(parameters[i])
-                            : null;
-                }
+                Object[] args = getDefaultArguments(constructor.getParameterTypes());
 
                 try {
                     // for using private constructors
                     constructor.setAccessible(true);
-                    return constructor.newInstance(args);
+                    Object obj = constructor.newInstance(args);
+                    constructorsCache.put(clazz, constructor);
+                    return obj;
                 } catch (ReflectiveOperationException e) {
                     // go to next constructor
                     continue;
@@ -135,6 +326,40 @@ public final class CopyUtils {
 		return null;
 	}
 	
+	/**
+	 * Creates a copy of the given {@code Cloneable} object by the native
+	 * shallow clone, then replaces the values of a reference fields by their
+	 * deep copies.
+	 * 
+	 * @param obj
+	 *            object for copying
+	 * @param clazz
+	 *            class of the object
+	 * @return a deep copy of the given object
+	 * @throws ReflectiveOperationException
+	 */
+	private static Object cloneObject(Object obj, Class<?> clazz)
+	        throws ReflectiveOperationException {
+		// in the snapshot mode the shallow copy must be consistent
+		SnapshotHook hook = context.get().hook;
+		Object copy = hook == null ? nativeClone(obj) : takeSnapshot(obj, null, hook);
+		
+		addToReferencesMap(obj, copy);
+		
+		// the shallow copy holds the same values as the original
+		Field[] fields = getReferenceFields(clazz);
+		if (defer(obj, copy, copy, fields, null)) return copy;
+		
+		Object value;
+		for (Field field : fields) {
+			value = field.get(copy);
+			if (value != null) {
+				field.set(copy, getClone(value, field.getType()));
+			}
+		}
+		return copy;
+	}
+	
 	/**
 	 * Creates a copy of the given array
 	 * 
@@ -146,17 +371,126 @@ public final class CopyUtils {
 	private static Object copyArray(Object array) throws ReflectiveOperationException {
 		Class<?> arrayType = array.getClass().getComponentType();
 		int length = Array.getLength(array);
-		Object arrayCopy = Array.newInstance(arrayType, length);
+		SnapshotHook hook = context.get().hook;
+		Object arrayCopy;
+		if (hook != null) {
+			// consistent shallow copy, whose elements are replaced by clones
+			arrayCopy = takeSnapshot(array, null, hook);
+		} else if (arrayType.isPrimitive()) {
+			// array of primitives is copied entirely by the one memory copy
+			arrayCopy = shallowCopyArray(array);
+		} else {
+			arrayCopy = Array.newInstance(arrayType, length);
+		}
 		
 		// arrays is the objects too
 		addToReferencesMap(array, arrayCopy);
 		
+		if (arrayType.isPrimitive()) return arrayCopy;
+		
+		Object source = hook == null ? array : arrayCopy;
+		if (!defer(array, source, arrayCopy, null, null)) {
+			copyElements(source, arrayCopy);
+		}
+		return arrayCopy;
+	}
+	
+	/**
+	 * Deep copy the elements of the given {@code fromArray} to the
+	 * {@code toArray}.
+	 * 
+	 * @param fromArray
+	 *            source array
+	 * @param toArray
+	 *            destination array of the same type and length
+	 * @throws ReflectiveOperationException
+	 */
+	private static void copyElements(Object fromArray, Object toArray)
+	        throws ReflectiveOperationException {
+		Class<?> arrayType = toArray.getClass().getComponentType();
+		int length = Array.getLength(toArray);
 		for (int i = 0; i < length; i++) {
-			Object value = Array.get(array, i);
+			Object value = Array.get(fromArray, i);
 			Object cloneValue = getClone(value, arrayType);
-			Array.set(arrayCopy, i, cloneValue);
+			Array.set(toArray, i, cloneValue);
+		}
+	}
+	
+	/**
+	 * Deep copy the given {@code values} of the {@code fields} to the
+	 * {@code toObj}.
+	 * 
+	 * @param fields
+	 *            accessible fields declared by the class of the {@code toObj}
+	 * @param values
+	 *            values of the fields read from the original object
+	 * @param toObj
+	 *            destination for writing values
+	 * @throws ReflectiveOperationException
+	 */
+	private static void copySnapshotValues(Field[] fields, Object[] values, Object toObj)
+	        throws ReflectiveOperationException {
+		for (int i = 0; i < fields.length; i++) {
+			fields[i].set(toObj, getClone(values[i], fields[i].getType()));
 		}
-		return arrayCopy;
+	}
+	
+	/**
+	 * Counts the reflective copying of an object of the given {@code clazz}.
+	 * When the count reaches the {@link #promotionThreshold}, the building of a
+	 * {@link ClassCopier} is started in the background. The count stops there,
+	 * so it never overflows.
+	 * 
+	 * @param clazz
+	 *            class of the copied object
+	 */
+	private static void countCopy(Class<?> clazz) {
+		int threshold = promotionThreshold;
+		// the promotion is disabled
+		if (threshold == Integer.MAX_VALUE) return;
+		
+		AtomicInteger count = copyCounts.get(clazz);
+		if (count == null) {
+			AtomicInteger newCount = new AtomicInteger();
+			count = copyCounts.putIfAbsent(clazz, newCount);
+			if (count == null) count = newCount;
+		}
+		int copies = count.get();
+		if (copies == PROMOTION_STARTED) return;
+		if (copies < threshold) {
+			count.incrementAndGet();
+		} else if (count.compareAndSet(copies, PROMOTION_STARTED)) {
+			// only the thread which marks the count starts the promotion
+			promote(clazz);
+		}
+	}
+	
+	/**
+	 * Postpones copying of the children of an object until all the objects of
+	 * the current level are allocated, if the copying goes in the
+	 * {@link TraversalOrder#BREADTH_FIRST} order.
+	 * 
+	 * @param original
+	 *            original array or object
+	 * @param source
+	 *            original array or object, or its consistent shallow copy
+	 * @param copy
+	 *            allocated copy
+	 * @param fields
+	 *            fields to be copied, {@code null} for arrays
+	 * @param values
+	 *            snapshot values of the {@code fields}, or {@code null}
+	 * @return {@code true} if copying is postponed, {@code false} if it has to
+	 *         be done right now
+	 */
+	private static boolean defer(Object original, Object source, Object copy, Field[] fields,
+	        Object[] values) {
+		CopyContext ctx = context.get();
+		if (ctx.pending == null) return false;
+		// the path to the root is needed only for detecting cycles
+		PendingCopy parent = ctx.ancestors == null ? null : ctx.current;
+		ctx.pending.add(new PendingCopy(original, parent, source, copy, fields, values));
+		return true;
 	}
 	
 	/**
@@ -177,8 +511,6 @@ public final class CopyUtils {
 		Object value;
 		Object cloneValue;
 		for (Field field : fields) {
-			// for settings private fields
-			field.setAccessible(true);
 			Class<?> fieldClazz = field.getType();
 			
 			value = field.get(fromObj);
@@ -199,15 +531,91 @@ public final class CopyUtils {
 	 */
 	private static Object copyObject(Object obj, Class<?> clazz)
 	        throws ReflectiveOperationException {
+		// hot classes are copied by the specialized copier
+		ClassCopier copier = copiers.get(clazz);
+		if (copier != null) return copier.copy(obj);
+		
+		Field[] fields = getFields(clazz);
+		// in the snapshot mode the values are read before copying
+		SnapshotHook hook = context.get().hook;
+		Object[] values = hook == null ? null : (Object[]) takeSnapshot(obj, fields, hook);
+		
 		Object copy = constractNewObject(clazz);
+		// counted after the construction, so the promotion finds the
+		// constructor which has worked
+		countCopy(clazz);
 		
 		addToReferencesMap(obj, copy);
 		
-		Field[] fields = getFields(clazz);
-		copyFieldValues(fields, obj, copy);
+		if (defer(obj, obj, copy, fields, values)) return copy;
+		
+		if (values == null) {
+			copyFieldValues(fields, obj, copy);
+		} else {
+			copySnapshotValues(fields, values, copy);
+		}
 		return copy;
 	}
 	
+	/**
+	 * Returns a non-virtual handle of the {@code Object.clone()}, which makes a
+	 * shallow copy of any {@code Cloneable} object even if its class overrides
+	 * the {@code clone()}.
+	 * 
+	 * @return handle of the type {@code (Object)Object}, or {@code null} if
+	 *         the {@code Object.clone()} is inaccessible
+	 */
+	private static MethodHandle findNativeClone() {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(Object.class,
+			        MethodHandles.lookup());
+			return lookup.findSpecial(Object.class, "clone", MethodType.methodType(Object.class),
+			        Object.class);
+		} catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+			log.log(Level.FINE, "Native clone is unavailable: {0}", e.toString());
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns the arguments for calling a constructor with the given parameter
+	 * types: {@code null} for objects and default values for primitives
+	 * 
+	 * @param parameters
+	 *            parameter types of the constructor
+	 * @return array of the arguments
+	 */
+	private static Object[] getDefaultArguments(Class<?>[] parameters) {
+		Object[] args = new Object[parameters.length];
+		for (int i = 0; i < parameters.length; i++) {
+			// null or a primitive defaults
+			args[i] = parameters[i].isPrimitive() ? getPrimitiveDefault(parameters[i]) : null;
+		}
+		return args;
+	}
+	
+	/**
+	 * Returns the executor used by {@link #deepCopyAsync(Object)}. If no
+	 * executor has been set, then a bounded one is created with the number of
+	 * threads equal to the number of available processors.
+	 * 
+	 * @return executor for the asynchronous copying
+	 */
+	private static Executor getAsyncExecutor() {
+		Executor executor = asyncExecutor;
+		if (executor == null) {
+			synchronized (CopyUtils.class) {
+				executor = asyncExecutor;
+				if (executor == null) {
+					executor = newBoundedExecutor(Runtime.getRuntime().availableProcessors(),
+					        DEFAULT_ASYNC_QUEUE_CAPACITY, new ThreadPoolExecutor.AbortPolicy());
+					asyncExecutor = executor;
+				}
+			}
+		}
+		return executor;
+	}
+	
 	/**
 	 * Returns a clone of the given object
 	 * 
@@ -233,51 +641,96 @@ public final class CopyUtils {
 		// workaround for suppressing calling of a Wrappers
 		Class<?> valueType = isPrimitive ? clazz : original.getClass();
 		
-		if (valueType.isArray()) {
-			cloneValue = copyArray(original);
-		} else if (isPrimitive || valueType.isEnum() || isUninstantiable(valueType)) {
-			cloneValue = original;
-		} else {
-			cloneValue = copyObject(original, valueType);
+		if (isPrimitive || valueType.isEnum() || isUninstantiable(valueType)) return original;
+		
+		// in the tree mode, fail fast if the object is its own ancestor. Leaves
+		// can't be on a cycle, so they are skipped.
+		CopyContext ctx = context.get();
+		Set<Object> ancestors = ctx.ancestors == null || isLeaf(valueType) ? null : ctx.ancestors;
+		if (ancestors != null && !ancestors.add(original) && isAncestor(ctx, original))
+		    throw new IllegalArgumentException("Cycle detected at " + getUniqueName(original)
+		            + ", the object graph isn't a tree");
+		try {
+			if (valueType.isArray()) {
+				cloneValue = copyArray(original);
+			} else if (nativeClone != null && original instanceof Cloneable) {
+				cloneValue = cloneObject(original, valueType);
+			} else {
+				cloneValue = copyObject(original, valueType);
+			}
+		} finally {
+			// in the breadth-first order all visited objects are kept
+			if (ancestors != null && ctx.pending == null) ancestors.remove(original);
 		}
 		return (T) cloneValue;
 	}
 	
 	/**
-	 * Returns an array of {@code Field} objects reflecting all the fields
-	 * declared by the given {@code class}
+	 * Returns an array of accessible {@code Field} objects reflecting all the
+	 * instance fields declared by the given {@code class} and its
+	 * superclasses. The result is cached.
 	 * 
 	 * @param clazz
 	 *            {@code Class} object
 	 * @return array of {@code Field} objects
 	 */
 	private static Field[] getFields(Class<?> clazz) {
-		List<Field> result = new LinkedList<>();
-		while (clazz != null) {
-			Field[] fields = clazz.getDeclaredFields();
-			for (Field field : fields) {
+		Field[] result = fieldsCache.get(clazz);
+		if (result != null) return result;
+		
+		List<Field> fields = new LinkedList<>();
+		for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
 				// static fields are not needed
 				if (!Modifier.isStatic(field.getModifiers())) {
-					result.add(field);
+					// for settings private fields
+					field.setAccessible(true);
+					fields.add(field);
+				}
+			}
+		}
+		result = fields.toArray(new Field[fields.size()]);
+		fieldsCache.put(clazz, result);
+		return result;
+	}
+	
+	/**
+	 * Returns an array of the accessible non-primitive {@code Field} objects
+	 * declared by the given {@code class} and its superclasses. The result is
+	 * cached.
+	 * 
+	 * @param clazz
+	 *            {@code Class} object
+	 * @return array of the reference {@code Field} objects
+	 */
+	private static Field[] getReferenceFields(Class<?> clazz) {
+		Field[] result = referenceFields.get(clazz);
+		if (result == null) {
+			List<Field> fields = new LinkedList<>();
+			for (Field field : getFields(clazz)) {
+				if (!field.getType().isPrimitive()) {
+					fields.add(field);
 				}
 			}
-			// get up to the Superclass
-			clazz = clazz.getSuperclass();
+			result = fields.toArray(new Field[fields.size()]);
+			referenceFields.put(clazz, result);
 		}
-		return result.toArray(new Field[result.size()]);
+		return result;
 	}
 	
 	/**
 	 * Returns the object referenced by the given {@code obj}, or {@code null}
-	 * if the references map contains no mapping for the {@code obj}.
+	 * if the references map contains no mapping for the {@code obj} or the
+	 * {@code obj} isn't tracked in the tree mode.
 	 * 
 	 * @param obj
 	 *            the key object
 	 * @return referenced object
 	 */
 	private static Object getFromReferencesMap(Object obj) {
-		String key = getUniqueName(obj);
-		Object result = references.get().get(key);
+		CopyContext ctx = context.get();
+		if (ctx.tree && !isTrackedInTree(obj.getClass())) return null;
+		Object result = ctx.references.get(obj);
 
 		return result; // obj.getClass().isInstance(result) ? result : null;
 	}
@@ -295,11 +748,134 @@ public final class CopyUtils {
 	}
 	
 	/**
-	 * Returns the unique name of the given object
+	 * Creates a shallow copy of the given object by the {@code Object.clone()}
+	 * 
+	 * @param obj
+	 *            {@code Cloneable} object
+	 * @return a shallow copy of the given object
+	 * @throws ReflectiveOperationException
+	 */
+	private static Object nativeClone(Object obj) throws ReflectiveOperationException {
+		try {
+			return nativeClone.invokeExact(obj);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new InvocationTargetException(e);
+		}
+	}
+	
+	/**
+	 * Starts building of a {@link ClassCopier} for the given {@code clazz} in
+	 * the background. If the copier can't be built (e.g. there is no usable
+	 * constructor), the class stays on the reflective path.
+	 * 
+	 * @param clazz
+	 *            promoted class
+	 */
+	private static void promote(final Class<?> clazz) {
+		try {
+			PromotionExecutorHolder.executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						copiers.put(clazz, ClassCopier.build(clazz));
+						copyCounts.remove(clazz);
+						log.log(Level.FINE, "Class {0} is promoted to the specialized copier",
+						        clazz.getName());
+					} catch (ReflectiveOperationException | RuntimeException e) {
+						log.log(Level.FINE, "Promotion of the class {0} failed: {1}",
+						        new Object[] { clazz.getName(), e.toString() });
+						// count again, the class may be promoted later
+						copyCounts.remove(clazz);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// too many classes are being promoted, try again later
+			copyCounts.remove(clazz);
+		}
+	}
+	
+	/**
+	 * Reads the shallow state of the given object: a shallow copy for arrays
+	 * and {@code Cloneable} objects (if {@code fields} is {@code null}), or
+	 * the values of the given {@code fields}
+	 * 
+	 * @param obj
+	 *            the object
+	 * @param fields
+	 *            fields for reading, or {@code null}
+	 * @return a shallow copy or the array of field values
+	 * @throws ReflectiveOperationException
+	 */
+	private static Object readShallowState(Object obj, Field[] fields)
+	        throws ReflectiveOperationException {
+		if (obj.getClass().isArray()) return shallowCopyArray(obj);
+		if (fields == null) return nativeClone(obj);
+		
+		Object[] values = new Object[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			values[i] = fields[i].get(obj);
+		}
+		return values;
+	}
+	
+	/**
+	 * Creates a shallow copy of the given array
+	 * 
+	 * @param array
+	 *            array for copying
+	 * @return a new array with the same elements
+	 */
+	private static Object shallowCopyArray(Object array) {
+		int length = Array.getLength(array);
+		Object arrayCopy = Array.newInstance(array.getClass().getComponentType(), length);
+		System.arraycopy(array, 0, arrayCopy, 0, length);
+		return arrayCopy;
+	}
+	
+	/**
+	 * Reads the shallow state of the given object (see
+	 * {@link #readShallowState(Object, Field[])}) consistently, guarded by the
+	 * given {@code hook}. Optimistic reads are tried first, then the state is
+	 * read under the read lock.
 	 * 
 	 * @param obj
 	 *            the object
-	 * @return the unique name of the given object as a {@code String}
+	 * @param fields
+	 *            fields for reading, or {@code null}
+	 * @param hook
+	 *            hook guarding the object
+	 * @return a shallow copy or the array of field values
+	 * @throws ReflectiveOperationException
+	 */
+	private static Object takeSnapshot(Object obj, Field[] fields, SnapshotHook hook)
+	        throws ReflectiveOperationException {
+		for (int attempt = 0; attempt < MAX_OPTIMISTIC_READS; attempt++) {
+			long stamp = hook.tryOptimisticRead(obj);
+			if (stamp != 0) {
+				Object state = readShallowState(obj, fields);
+				if (hook.validate(obj, stamp)) return state;
+			}
+		}
+		
+		// writers are too active, so block them
+		long stamp = hook.readLock(obj);
+		try {
+			return readShallowState(obj, fields);
+		} finally {
+			hook.unlockRead(obj, stamp);
+		}
+	}
+	
+	/**
+	 * Returns the name of the given object for messages. It isn't unique:
+	 * identity hash codes of different objects may collide.
+	 * 
+	 * @param obj
+	 *            the object
+	 * @return the name of the given object as a {@code String}
 	 */
 	private static String getUniqueName(Object obj) {
 		return obj.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(obj));
@@ -313,17 +889,335 @@ public final class CopyUtils {
 	 * @return a deep copy of the given object
 	 * @throws ReflectiveOperationException
 	 */
-	@SuppressWarnings("unchecked")
 	public static <T> T deepCopy(final T obj) throws ReflectiveOperationException {
+		return deepCopy(obj, new CopyContext(false, null, null));
+	}
+	
+	/**
+	 * Create a deep copy of the given {@code obj} within the given copying
+	 * {@code ctx}
+	 * 
+	 * @param obj
+	 *            object for copying
+	 * @param ctx
+	 *            state of the copying
+	 * @return a deep copy of the given object
+	 * @throws ReflectiveOperationException
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> T deepCopy(final T obj, CopyContext ctx)
+	        throws ReflectiveOperationException {
 		try {
-			// set a new threadlocal references map
-			references.set(new HashMap<String, Object>());
+			// set a new threadlocal copying state
+			context.set(ctx);
 			Class<T> clazz = (Class<T>) obj.getClass();
-			return getClone(obj, clazz);
+			T copy = getClone(obj, clazz);
+			
+			if (ctx.pending != null) {
+				PendingCopy next;
+				while ((next = ctx.pending.poll()) != null) {
+					ctx.current = next;
+					next.copy();
+				}
+			}
+			return copy;
 		} finally {
 			// helps to GC
-			references.get().clear();
-			references.remove();
+			ctx.clear();
+			context.remove();
+		}
+	}
+	
+	/**
+	 * Create a deep copy of the given {@code obj}, which must be a tree: no
+	 * object is referenced twice within the graph. Object identities aren't
+	 * tracked, that makes the copying much faster, but a shared object is
+	 * copied as many times as it's referenced.
+	 * <p>
+	 * The only exception are the objects of the {@code java.util} classes
+	 * loaded by the JDK: collections, their nodes, entries and views are
+	 * copied as by {@link #deepCopy(Object)}, so the JDK collections may be
+	 * used within the tree. A cycle passing only through such objects is
+	 * copied as well; any other cycle isn't allowed.
+	 * <p>
+	 * Cycles are detected only when assertions are enabled for the
+	 * {@code CopyUtils}, see {@link #deepCopyTree(Object, boolean)}.
+	 * 
+	 * @param obj
+	 *            object for copying
+	 * @return a deep copy of the given object
+	 * @throws ReflectiveOperationException
+	 */
+	public static <T> T deepCopyTree(final T obj) throws ReflectiveOperationException {
+		return deepCopyTree(obj, DETECT_CYCLES_IN_TREE);
+	}
+	
+	/**
+	 * Create a deep copy of the given {@code obj}, which must be a tree (see
+	 * {@link #deepCopyTree(Object)}).
+	 * 
+	 * @param obj
+	 *            object for copying
+	 * @param detectCycles
+	 *            if {@code true}, the path from the root to the current object
+	 *            is tracked and a cycle fails the copying with
+	 *            {@code IllegalArgumentException}; shared objects are copied
+	 *            as usual. Otherwise a cycle leads to {@code StackOverflowError}
+	 *            in the {@link TraversalOrder#DEPTH_FIRST} order, and in the
+	 *            {@link TraversalOrder#BREADTH_FIRST} order the queue of pending
+	 *            copies grows until {@code OutOfMemoryError}.
+	 * @return a deep copy of the given object
+	 * @throws ReflectiveOperationException
+	 */
+	public static <T> T deepCopyTree(final T obj, boolean detectCycles)
+	        throws ReflectiveOperationException {
+		Set<Object> ancestors = detectCycles ? Collections
+		        .newSetFromMap(new IdentityHashMap<Object, Boolean>()) : null;
+		return deepCopy(obj, new CopyContext(true, ancestors, null));
+	}
+	
+	/**
+	 * Create a deep copy of the given {@code obj}, while other threads may
+	 * modify the objects of the graph. The state of every object is read
+	 * consistently with the help of the given {@code hook}, so a copy of an
+	 * object never mixes the states before and after a modification. Only one
+	 * object is guarded at a time, the copy of the whole graph isn't an atomic
+	 * snapshot.
+	 * 
+	 * @param obj
+	 *            object for copying
+	 * @param hook
+	 *            hook guarding reading of a single object
+	 * @return a deep copy of the given object
+	 * @throws ReflectiveOperationException
+	 */
+	public static <T> T deepCopySnapshot(final T obj, SnapshotHook hook)
+	        throws ReflectiveOperationException {
+		if (hook == null) throw new NullPointerException("hook");
+		return deepCopy(obj, new CopyContext(false, null, hook));
+	}
+	
+	/**
+	 * Removes all the cached metadata of the classes, e.g. after redeploying
+	 * of an application. Promoted classes are demoted.
+	 */
+	public static void clearMetadataCaches() {
+		for (ClassMetadataCache<?> cache : metadataCaches) {
+			cache.clear();
+		}
+	}
+	
+	/**
+	 * Returns statistics of the caches of per-class metadata (fields,
+	 * specialized copiers, etc.). The caches don't prevent unloading of the
+	 * classes, so entries of the unloaded classes go away by themselves.
+	 * 
+	 * @return a snapshot of the statistics, one element per cache
+	 */
+	public static List<MetadataCacheStats> getMetadataCacheStats() {
+		List<MetadataCacheStats> result = new LinkedList<>();
+		for (ClassMetadataCache<?> cache : metadataCaches) {
+			result.add(cache.getStats());
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the number of reflective copies of a class, after which the class
+	 * is promoted to a specialized copier
+	 * 
+	 * @return the promotion threshold
+	 * @see #setPromotionThreshold(int)
+	 */
+	public static int getPromotionThreshold() {
+		return promotionThreshold;
+	}
+	
+	/**
+	 * Checks if the given {@code clazz} is promoted to a specialized copier
+	 * 
+	 * @param clazz
+	 *            checked class
+	 * @return {@code true} if objects of the class are copied by a
+	 *         specialized copier
+	 */
+	public static boolean isPromoted(Class<?> clazz) {
+		return copiers.containsKey(clazz);
+	}
+	
+	/**
+	 * Returns the maximum number of classes in each cache of per-class
+	 * metadata
+	 * 
+	 * @return maximum number of classes in a cache
+	 * @see #setMetadataCacheSize(int)
+	 */
+	public static int getMetadataCacheSize() {
+		return fieldsCache.getMaxSize();
+	}
+	
+	/**
+	 * Sets the maximum number of classes in each cache of per-class metadata.
+	 * When a cache is full, the least recently used classes are evicted. It's
+	 * useful for applications which generate classes dynamically.
+	 * 
+	 * @param maxSize
+	 *            maximum number of classes in a cache
+	 */
+	public static void setMetadataCacheSize(int maxSize) {
+		if (maxSize <= 0) throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+		for (ClassMetadataCache<?> cache : metadataCaches) {
+			cache.setMaxSize(maxSize);
+		}
+	}
+	
+	/**
+	 * Returns the order in which objects of a graph are copied
+	 * 
+	 * @return the traversal order
+	 * @see #setTraversalOrder(TraversalOrder)
+	 */
+	public static TraversalOrder getTraversalOrder() {
+		return traversalOrder;
+	}
+	
+	/**
+	 * Sets the order in which objects of a graph are copied, and so the order
+	 * in which the clones are allocated. It affects the copying started after
+	 * the call.
+	 * 
+	 * @param order
+	 *            new traversal order
+	 */
+	public static void setTraversalOrder(TraversalOrder order) {
+		if (order == null) throw new NullPointerException("order");
+		traversalOrder = order;
+	}
+	
+	/**
+	 * Sets the number of reflective copies of a class, after which the class
+	 * is promoted to a specialized copier. The copier reuses the constructor
+	 * which has worked for the reflective copying, resolves the fields once
+	 * and copies primitive fields without boxing, so it's faster for the hot
+	 * classes but costs some time to be built. It's built in the background,
+	 * while the copying goes on by the reflective way.
+	 * <p>
+	 * Already promoted classes stay promoted, unless their constructor stops
+	 * working. {@code Cloneable} classes, which are copied by the native
+	 * clone, aren't promoted.
+	 * 
+	 * @param threshold
+	 *            new threshold, {@code 0} promotes a class on its first
+	 *            copying, {@code Integer.MAX_VALUE} disables the promotion
+	 */
+	public static void setPromotionThreshold(int threshold) {
+		if (threshold < 0)
+		    throw new IllegalArgumentException("threshold must not be negative: " + threshold);
+		promotionThreshold = threshold;
+	}
+	
+	/**
+	 * Asynchronously create a deep copy of the given {@code obj} by using the
+	 * default bounded executor (see {@link #setAsyncExecutor(Executor)}). The
+	 * object must not be modified until the returned future is completed, see
+	 * {@link #deepCopyAsync(Object, Executor)}.
+	 * 
+	 * @param obj
+	 *            object for copying
+	 * @return a future which will be completed by a deep copy of the given
+	 *         object or exceptionally, if the copying failed or the task was
+	 *         rejected by the executor
+	 */
+	public static <T> CompletableFuture<T> deepCopyAsync(final T obj) {
+		return deepCopyAsync(obj, getAsyncExecutor());
+	}
+	
+	/**
+	 * Asynchronously create a deep copy of the given {@code obj} by using the
+	 * given {@code executor}.
+	 * <p>
+	 * The graph of the object is read by another thread while the copy is
+	 * being made, so the caller must not modify it until the returned future
+	 * is completed; otherwise the copy may be torn. For graphs which are
+	 * modified concurrently use {@link #deepCopySnapshot(Object, SnapshotHook)}.
+	 * <p>
+	 * If the executor rejects the task (e.g. its queue is full), then the
+	 * returned future is completed exceptionally with the
+	 * {@link RejectedExecutionException}, so callers can apply backpressure.
+	 * <p>
+	 * The task passed to the executor is also a {@link Future} of the copy.
+	 * An executor which drops the task without running it should cancel the
+	 * task, otherwise the returned future is never completed. Executors
+	 * created by {@link #newBoundedExecutor} do so.
+	 * 
+	 * @param obj
+	 *            object for copying
+	 * @param executor
+	 *            executor for running the copy task
+	 * @return a future which will be completed by a deep copy of the given
+	 *         object
+	 */
+	public static <T> CompletableFuture<T> deepCopyAsync(final T obj, Executor executor) {
+		CopyTask<T> task = new CopyTask<>(obj);
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			log.log(Level.FINE, "Asynchronous copy rejected: {0}", e.toString());
+			task.result.completeExceptionally(e);
+		}
+		return task.result;
+	}
+	
+	/**
+	 * Creates a new bounded executor suitable for the
+	 * {@link #deepCopyAsync(Object, Executor)}. Threads of the executor are
+	 * virtual, if the runtime supports them, or daemon platform threads
+	 * otherwise.
+	 * 
+	 * @param threads
+	 *            maximum number of concurrently running copy tasks
+	 * @param queueCapacity
+	 *            maximum number of tasks waiting for a free thread, {@code 0}
+	 *            means no waiting at all
+	 * @param rejectionHandler
+	 *            handler used when both threads and queue are exhausted. The
+	 *            {@link ThreadPoolExecutor.DiscardPolicy} and the
+	 *            {@link ThreadPoolExecutor.DiscardOldestPolicy} are replaced by
+	 *            the ones which cancel the discarded tasks, so futures of the
+	 *            discarded copies are completed.
+	 * @return a new executor
+	 */
+	public static ExecutorService newBoundedExecutor(int threads, int queueCapacity,
+	        RejectedExecutionHandler rejectionHandler) {
+		if (threads <= 0) throw new IllegalArgumentException("threads must be positive: " + threads);
+		if (queueCapacity < 0)
+		    throw new IllegalArgumentException("queueCapacity must not be negative: " + queueCapacity);
+		
+		if (rejectionHandler instanceof ThreadPoolExecutor.DiscardPolicy) {
+			rejectionHandler = new CancellingDiscardPolicy(false);
+		} else if (rejectionHandler instanceof ThreadPoolExecutor.DiscardOldestPolicy) {
+			rejectionHandler = new CancellingDiscardPolicy(true);
+		}
+		
+		BlockingQueue<Runnable> queue = queueCapacity == 0 ? new SynchronousQueue<Runnable>()
+		        : new ArrayBlockingQueue<Runnable>(queueCapacity);
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+		        ASYNC_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, queue, CopyThreadFactory.create(),
+		        rejectionHandler);
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+	
+	/**
+	 * Sets the executor used by {@link #deepCopyAsync(Object)}. Previous
+	 * executor isn't shut down.
+	 * 
+	 * @param executor
+	 *            new executor or {@code null} for using the default one
+	 */
+	public static void setAsyncExecutor(Executor executor) {
+		synchronized (CopyUtils.class) {
+			asyncExecutor = executor;
 		}
 	}
 	
@@ -382,6 +1276,351 @@ public final class CopyUtils {
 	private CopyUtils() {
 	}
 	
+	/**
+	 * Specialized copier of a hot class. The constructor and the fields are
+	 * resolved once, primitive fields are copied by the typed accessors without
+	 * boxing and without the {@link CopyUtils#getClone(Object, Class)}.
+	 */
+	private final static class ClassCopier {
+		final private Class<?> clazz;
+		final private Constructor<?> constructor;
+		final private Object[] args;
+		final private Field[] fields;
+		final private Field[] primitiveFields;
+		final private Class<?>[] primitiveTypes;
+		final private Field[] referenceFields;
+		
+		/**
+		 * Builds a copier for the given {@code clazz}. It uses the constructor
+		 * which has worked for the reflective copying.
+		 * 
+		 * @param clazz
+		 *            class of the copied objects
+		 * @return a new copier
+		 * @throws ReflectiveOperationException
+		 *             if no constructor has worked yet
+		 */
+		static ClassCopier build(Class<?> clazz) throws ReflectiveOperationException {
+			Constructor<?> constructor = constructorsCache.get(clazz);
+			if (constructor == null)
+			    throw new InstantiationException("No constructor of " + clazz.getName()
+			            + " has worked yet");
+			return new ClassCopier(clazz, constructor,
+			        getDefaultArguments(constructor.getParameterTypes()), getFields(clazz));
+		}
+		
+		private ClassCopier(Class<?> clazz, Constructor<?> constructor, Object[] args,
+		        Field[] fields) {
+			this.clazz = clazz;
+			this.constructor = constructor;
+			this.args = args;
+			this.fields = fields;
+			
+			List<Field> primitives = new LinkedList<>();
+			List<Field> references = new LinkedList<>();
+			for (Field field : fields) {
+				(field.getType().isPrimitive() ? primitives : references).add(field);
+			}
+			primitiveFields = primitives.toArray(new Field[primitives.size()]);
+			referenceFields = references.toArray(new Field[references.size()]);
+			primitiveTypes = new Class<?>[primitiveFields.length];
+			for (int i = 0; i < primitiveFields.length; i++) {
+				primitiveTypes[i] = primitiveFields[i].getType();
+			}
+		}
+		
+		/**
+		 * Copies the value of the primitive {@code field} without boxing
+		 */
+		private static void copyPrimitive(Field field, Class<?> type, Object fromObj, Object toObj)
+		        throws IllegalAccessException {
+			if (type == int.class) {
+				field.setInt(toObj, field.getInt(fromObj));
+			} else if (type == long.class) {
+				field.setLong(toObj, field.getLong(fromObj));
+			} else if (type == double.class) {
+				field.setDouble(toObj, field.getDouble(fromObj));
+			} else if (type == boolean.class) {
+				field.setBoolean(toObj, field.getBoolean(fromObj));
+			} else if (type == float.class) {
+				field.setFloat(toObj, field.getFloat(fromObj));
+			} else if (type == byte.class) {
+				field.setByte(toObj, field.getByte(fromObj));
+			} else if (type == char.class) {
+				field.setChar(toObj, field.getChar(fromObj));
+			} else {
+				field.setShort(toObj, field.getShort(fromObj));
+			}
+		}
+		
+		/**
+		 * Creates a copy of the given object
+		 * 
+		 * @param obj
+		 *            object for copying
+		 * @return a deep copy of the given object
+		 * @throws ReflectiveOperationException
+		 */
+		Object copy(Object obj) throws ReflectiveOperationException {
+			Object copy;
+			try {
+				copy = constructor.newInstance(args);
+			} catch (ReflectiveOperationException e) {
+				// the constructor doesn't work anymore, demote the class to the
+				// reflective copying, which searches for another one
+				log.log(Level.FINE, "Class {0} is demoted: {1}",
+				        new Object[] { clazz.getName(), e.toString() });
+				copiers.remove(clazz);
+				return copyObject(obj, clazz);
+			}
+			
+			// in the snapshot mode the values are read before copying
+			SnapshotHook hook = context.get().hook;
+			Object[] values = hook == null ? null : (Object[]) takeSnapshot(obj, fields, hook);
+			
+			addToReferencesMap(obj, copy);
+			
+			if (values != null) {
+				if (!defer(obj, obj, copy, fields, values)) {
+					copySnapshotValues(fields, values, copy);
+				}
+				return copy;
+			}
+			for (int i = 0; i < primitiveFields.length; i++) {
+				copyPrimitive(primitiveFields[i], primitiveTypes[i], obj, copy);
+			}
+			if (defer(obj, obj, copy, referenceFields, null)) return copy;
+			for (Field field : referenceFields) {
+				field.set(copy, getClone(field.get(obj), field.getType()));
+			}
+			return copy;
+		}
+	}
+	
+	/**
+	 * State of a single copying
+	 */
+	private final static class CopyContext {
+		/**
+		 * Whether the copying runs in the tree mode
+		 */
+		final boolean tree;
+		/**
+		 * Map for mapping object references between <i>original</i> and
+		 * <i>clone</i>
+		 */
+		final Map<Object, Object> references = new IdentityHashMap<>();
+		/**
+		 * Objects on the path from the root to the current one, or all the
+		 * visited objects in the {@link TraversalOrder#BREADTH_FIRST} order,
+		 * {@code null} unless cycles are detected
+		 */
+		final Set<Object> ancestors;
+		/**
+		 * Hook guarding reading of the objects, {@code null} unless the
+		 * copying runs in the snapshot mode
+		 */
+		final SnapshotHook hook;
+		/**
+		 * Allocated copies whose children are not copied yet, {@code null}
+		 * unless the copying goes in the {@link TraversalOrder#BREADTH_FIRST}
+		 * order
+		 */
+		final Queue<PendingCopy> pending;
+		/**
+		 * Pending copy whose children are being copied right now
+		 */
+		PendingCopy current;
+		
+		CopyContext(boolean tree, Set<Object> ancestors, SnapshotHook hook) {
+			this.tree = tree;
+			this.ancestors = ancestors;
+			this.hook = hook;
+			pending = traversalOrder == TraversalOrder.BREADTH_FIRST ? new ArrayDeque<PendingCopy>()
+			        : null;
+		}
+		
+		void clear() {
+			references.clear();
+			if (ancestors != null) ancestors.clear();
+			if (pending != null) pending.clear();
+			current = null;
+		}
+	}
+	
+	/**
+	 * Allocated copy of an array or object, whose children are to be copied
+	 */
+	private final static class PendingCopy {
+		final private Object original;
+		/**
+		 * Pending copy of the object which refers to the original one,
+		 * {@code null} for the root or unless cycles are detected
+		 */
+		final private PendingCopy parent;
+		final private Object source;
+		final private Object copy;
+		final private Field[] fields;
+		final private Object[] values;
+		
+		PendingCopy(Object original, PendingCopy parent, Object source, Object copy,
+		        Field[] fields, Object[] values) {
+			this.original = original;
+			this.parent = parent;
+			this.source = source;
+			this.copy = copy;
+			this.fields = fields;
+			this.values = values;
+		}
+		
+		/**
+		 * Deep copy the elements or the field values of the {@code source} to
+		 * the {@code copy}
+		 * 
+		 * @throws ReflectiveOperationException
+		 */
+		void copy() throws ReflectiveOperationException {
+			if (fields == null) {
+				copyElements(source, copy);
+			} else if (values == null) {
+				copyFieldValues(fields, source, copy);
+			} else {
+				copySnapshotValues(fields, values, copy);
+			}
+		}
+	}
+	
+	/**
+	 * Future returned by the {@link #deepCopyAsync(Object, Executor)}
+	 */
+	final static class CopyFuture<T> extends CompletableFuture<T> {
+		/**
+		 * Whether the copy has been made by the submitting thread, e.g. by an
+		 * executor which runs the rejected tasks in place
+		 */
+		volatile boolean copiedInPlace;
+	}
+	
+	/**
+	 * Task of the asynchronous copying. It's also a {@link Future} of the copy,
+	 * so an executor which drops the task can complete the copy by
+	 * {@link #cancel(boolean)}.
+	 */
+	private final static class CopyTask<T> implements RunnableFuture<T> {
+		final private T obj;
+		final private Thread submitter = Thread.currentThread();
+		final CopyFuture<T> result = new CopyFuture<>();
+		
+		CopyTask(T obj) {
+			this.obj = obj;
+		}
+		
+		@Override
+		public void run() {
+			if (result.isDone()) return;
+			if (Thread.currentThread() == submitter) result.copiedInPlace = true;
+			try {
+				result.complete(deepCopy(obj));
+			} catch (Throwable e) {
+				result.completeExceptionally(e);
+			}
+		}
+		
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return result.cancel(mayInterruptIfRunning);
+		}
+		
+		@Override
+		public boolean isCancelled() {
+			return result.isCancelled();
+		}
+		
+		@Override
+		public boolean isDone() {
+			return result.isDone();
+		}
+		
+		@Override
+		public T get() throws InterruptedException, ExecutionException {
+			return result.get();
+		}
+		
+		@Override
+		public T get(long timeout, TimeUnit unit) throws InterruptedException,
+		        ExecutionException, TimeoutException {
+			return result.get(timeout, unit);
+		}
+	}
+	
+	/**
+	 * Replacement of the {@link ThreadPoolExecutor.DiscardPolicy} and the
+	 * {@link ThreadPoolExecutor.DiscardOldestPolicy}, which cancels the
+	 * discarded tasks
+	 */
+	private final static class CancellingDiscardPolicy implements RejectedExecutionHandler {
+		final private boolean discardOldest;
+		
+		CancellingDiscardPolicy(boolean discardOldest) {
+			this.discardOldest = discardOldest;
+		}
+		
+		@Override
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+			if (discardOldest && !executor.isShutdown()) {
+				Runnable oldest = executor.getQueue().poll();
+				// without a queued task the new one can't get a place
+				if (oldest != null) {
+					cancel(oldest);
+					executor.execute(r);
+					return;
+				}
+			}
+			cancel(r);
+		}
+		
+		private static void cancel(Runnable task) {
+			if (task instanceof Future) ((Future<?>) task).cancel(false);
+		}
+	}
+	
+	/**
+	 * Factory of the threads for the asynchronous copying: virtual threads if
+	 * they're supported by the runtime, daemon threads otherwise.
+	 */
+	private final static class CopyThreadFactory implements ThreadFactory {
+		final private AtomicInteger counter = new AtomicInteger();
+		
+		static ThreadFactory create() {
+			// virtual threads are available since Java 21
+			try {
+				Class<?> builderClazz = Class.forName("java.lang.Thread$Builder");
+				Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+				builder = builderClazz.getMethod("name", String.class, long.class).invoke(builder,
+				        "deep-copy-", 0L);
+				return (ThreadFactory) builderClazz.getMethod("factory").invoke(builder);
+			} catch (ReflectiveOperationException e) {
+				log.log(Level.FINEST, "Virtual threads are unsupported, use daemon threads");
+			}
+			return new CopyThreadFactory();
+		}
+		
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "deep-copy-" + counter.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+	
+	/**
+	 * Lazily created executor for building of the {@link ClassCopier}s
+	 */
+	private final static class PromotionExecutorHolder {
+		final static ExecutorService executor = newBoundedExecutor(1, PROMOTION_QUEUE_CAPACITY,
+		        new ThreadPoolExecutor.AbortPolicy());
+	}
+	
 	private final static class SetMethodAccessible<T> implements PrivilegedExceptionAction<T> {
 		final private Method method;
 		final private Object args;
@@ -0,0 +1,80 @@
+/**
+ * {@literal
+ * 
+ * Copyright (c) 2015 Egor Krasnopolin <egor.krasnopolin@googlemail.com>
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ * }
+ */
+package com.kry.copyutils;
+
+/**
+ * Statistics of a per-class metadata cache of the {@link CopyUtils}
+ * 
+ * @see CopyUtils#getMetadataCacheStats()
+ */
+public final class MetadataCacheStats {
+	final private String name;
+	final private int size;
+	final private int maxSize;
+	final private long evictions;
+	
+	MetadataCacheStats(String name, int size, int maxSize, long evictions) {
+		this.name = name;
+		this.size = size;
+		this.maxSize = maxSize;
+		this.evictions = evictions;
+	}
+	
+	/**
+	 * Returns the number of the evicted entries since the start
+	 * 
+	 * @return number of evictions
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+	
+	/**
+	 * Returns the maximum number of entries
+	 * 
+	 * @return the size limit
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+	
+	/**
+	 * Returns the name of the cache
+	 * 
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * Returns the number of entries
+	 * 
+	 * @return the number of classes which have a value in the cache
+	 */
+	public int getSize() {
+		return size;
+	}
+	
+	@Override
+	public String toString() {
+		return name + "[size=" + size + ", maxSize=" + maxSize + ", evictions=" + evictions + "]";
+	}
+}
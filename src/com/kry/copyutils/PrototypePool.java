@@ -0,0 +1,260 @@
+/**
+ * {@literal
+ * 
+ * Copyright (c) 2015 Egor Krasnopolin <egor.krasnopolin@googlemail.com>
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ * }
+ */
+package com.kry.copyutils;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pool of the ready-made deep copies of a prototype object.
+ * <p>
+ * The pool keeps up to {@code capacity} copies of the registered prototype
+ * and refills them in the background by {@link CopyUtils#deepCopyAsync}, so
+ * {@link #take()} usually costs just a queue poll. When the pool is empty,
+ * the copy is created in the calling thread.
+ * <p>
+ * The pool holds its own deep copy of the prototype, so later changes of the
+ * object passed to the pool don't affect the copies. Use
+ * {@link #setPrototype(Object)} for replacing the prototype; copies of the
+ * previous one are discarded.
+ * <p>
+ * A background copy which doesn't complete within the refill timeout (e.g.
+ * the executor dropped it silently) is given up, so the pool keeps refilling.
+ * <p>
+ * A saturated executor which runs the rejected tasks in the submitting thread
+ * (e.g. with the {@link java.util.concurrent.ThreadPoolExecutor.CallerRunsPolicy})
+ * makes at most one refill copy per {@link #take()} in the calling thread; the
+ * rest of the pool is refilled by the executor's threads as their copies
+ * complete.
+ * 
+ * @param <T>
+ *            type of the prototype
+ */
+public final class PrototypePool<T> {
+	private final static Logger log = Logger.getLogger(PrototypePool.class.getPackage().getName());
+	
+	/**
+	 * Default time given to a background copy
+	 */
+	private final static long DEFAULT_REFILL_TIMEOUT_SECONDS = 60;
+	
+	/**
+	 * Maximum number of the ready copies
+	 */
+	private final int capacity;
+	/**
+	 * Executor for the background copying, {@code null} means the default
+	 * executor of {@link CopyUtils#deepCopyAsync(Object)}
+	 */
+	private final Executor executor;
+	/**
+	 * Time given to a background copy, in nanoseconds
+	 */
+	private final long refillTimeout;
+	/**
+	 * Copies of the current prototype
+	 */
+	private volatile Generation<T> current;
+	
+	/**
+	 * Creates a new pool which refills by the default executor of the
+	 * {@link CopyUtils#deepCopyAsync(Object)}
+	 * 
+	 * @param prototype
+	 *            prototype object
+	 * @param capacity
+	 *            maximum number of the ready copies
+	 * @throws ReflectiveOperationException
+	 */
+	public PrototypePool(T prototype, int capacity) throws ReflectiveOperationException {
+		this(prototype, capacity, null);
+	}
+	
+	/**
+	 * Creates a new pool which refills by the given {@code executor}
+	 * 
+	 * @param prototype
+	 *            prototype object
+	 * @param capacity
+	 *            maximum number of the ready copies
+	 * @param executor
+	 *            executor for the background copying, {@code null} for the
+	 *            default one
+	 * @throws ReflectiveOperationException
+	 */
+	public PrototypePool(T prototype, int capacity, Executor executor)
+	        throws ReflectiveOperationException {
+		this(prototype, capacity, executor, DEFAULT_REFILL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+	}
+	
+	/**
+	 * Creates a new pool which refills by the given {@code executor}, giving
+	 * up background copies which take longer than the {@code refillTimeout}
+	 * 
+	 * @param prototype
+	 *            prototype object
+	 * @param capacity
+	 *            maximum number of the ready copies
+	 * @param executor
+	 *            executor for the background copying, {@code null} for the
+	 *            default one
+	 * @param refillTimeout
+	 *            time given to a background copy
+	 * @param unit
+	 *            time unit of the {@code refillTimeout}
+	 * @throws ReflectiveOperationException
+	 */
+	public PrototypePool(T prototype, int capacity, Executor executor, long refillTimeout,
+	        TimeUnit unit) throws ReflectiveOperationException {
+		if (capacity <= 0)
+		    throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		if (refillTimeout <= 0)
+		    throw new IllegalArgumentException("refillTimeout must be positive: " + refillTimeout);
+		this.capacity = capacity;
+		this.executor = executor;
+		this.refillTimeout = unit.toNanos(refillTimeout);
+		setPrototype(prototype);
+	}
+	
+	/**
+	 * Checks if the copy has been made by the thread which has submitted it
+	 * 
+	 * @param future
+	 *            future returned by {@link CopyUtils#deepCopyAsync}
+	 * @return {@code true} if the copy has been made in place
+	 */
+	private static boolean isCopiedInPlace(CompletableFuture<?> future) {
+		return future instanceof CopyUtils.CopyFuture
+		        && ((CopyUtils.CopyFuture<?>) future).copiedInPlace;
+	}
+	
+	/**
+	 * Returns number of the copies which are ready to be taken
+	 * 
+	 * @return number of the ready copies
+	 */
+	public int readyCount() {
+		return current.ready.size();
+	}
+	
+	/**
+	 * Replaces the prototype. Copies of the previous prototype, including the
+	 * ones which are being created right now, are discarded.
+	 * 
+	 * @param prototype
+	 *            new prototype object
+	 * @throws ReflectiveOperationException
+	 */
+	public void setPrototype(T prototype) throws ReflectiveOperationException {
+		if (prototype == null) throw new NullPointerException("prototype");
+		Generation<T> generation = new Generation<>(CopyUtils.deepCopy(prototype));
+		current = generation;
+		refill(generation);
+	}
+	
+	/**
+	 * Returns a deep copy of the prototype. A ready copy is used, if there is
+	 * one; otherwise the copy is created in the calling thread.
+	 * 
+	 * @return a deep copy of the prototype
+	 * @throws ReflectiveOperationException
+	 */
+	public T take() throws ReflectiveOperationException {
+		Generation<T> generation = current;
+		T copy = generation.ready.poll();
+		if (copy != null) {
+			generation.reserved.decrementAndGet();
+			refill(generation);
+			return copy;
+		}
+		refill(generation);
+		return CopyUtils.deepCopy(generation.prototype);
+	}
+	
+	/**
+	 * Starts background copying until the ready and pending copies fill the
+	 * pool capacity. At most {@code capacity} copies are started per call, so
+	 * an executor which discards the older tasks for the newer ones can't keep
+	 * the caller resubmitting. It stops after a copy which is made in the
+	 * calling thread or rejected. Copies completed by the executor's threads
+	 * go on refilling.
+	 * 
+	 * @param generation
+	 *            generation for refilling
+	 */
+	private void refill(final Generation<T> generation) {
+		int started = 0;
+		while (generation == current && started < capacity) {
+			int reserved = generation.reserved.get();
+			if (reserved >= capacity) return;
+			if (!generation.reserved.compareAndSet(reserved, reserved + 1)) continue;
+			started++;
+			
+			final CompletableFuture<T> future = executor == null ? CopyUtils
+			        .deepCopyAsync(generation.prototype) : CopyUtils.deepCopyAsync(
+			        generation.prototype, executor);
+			// a task dropped by the executor would hold its reservation forever
+			future.orTimeout(refillTimeout, TimeUnit.NANOSECONDS);
+			future.whenComplete(new BiConsumer<T, Throwable>() {
+				@Override
+				public void accept(T copy, Throwable e) {
+					if (e != null) {
+						log.log(Level.FINE, "Background copy of the prototype failed: {0}",
+						        e.toString());
+					}
+					if (copy == null || generation != current) {
+						generation.reserved.decrementAndGet();
+					} else {
+						generation.ready.offer(copy);
+						// go on refilling, unless the copy has been made in
+						// place, so the caller doesn't make the copies itself
+						if (!isCopiedInPlace(future)) refill(generation);
+					}
+				}
+			});
+			// the copy has been made in this thread, or the executor is
+			// saturated: try again on the next take()
+			if (isCopiedInPlace(future) || future.isCompletedExceptionally()) return;
+		}
+	}
+	
+	/**
+	 * Prototype with its ready copies
+	 */
+	private final static class Generation<T> {
+		final T prototype;
+		final Queue<T> ready = new ConcurrentLinkedQueue<>();
+		/**
+		 * Number of the ready copies plus copies which are being created
+		 */
+		final AtomicInteger reserved = new AtomicInteger();
+		
+		Generation(T prototype) {
+			this.prototype = prototype;
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * {@literal
+ * 
+ * Copyright (c) 2015 Egor Krasnopolin <egor.krasnopolin@googlemail.com>
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ * }
+ */
+package com.kry.copyutils;
+
+/**
+ * Hook which guards reading of a single object during the
+ * {@link CopyUtils#deepCopySnapshot(Object, SnapshotHook)}.
+ * <p>
+ * The state of every copied object is read by the optimistic way: a stamp is
+ * taken by {@link #tryOptimisticRead(Object)}, the fields are read, and the
+ * read is accepted if {@link #validate(Object, long)} succeeds. After a few
+ * failed attempts the state is read under {@link #readLock(Object)}.
+ * <p>
+ * Objects which aren't guarded by the hook should get any non-zero stamp,
+ * which is always valid, and a no-op read lock.
+ * <p>
+ * Locks or version counters used by the hook shouldn't be reachable from the
+ * copied graph, otherwise they're copied with their current state.
+ * 
+ * @see StampedLockSnapshotHook
+ */
+public interface SnapshotHook {
+	/**
+	 * Starts an optimistic read of the given object
+	 * 
+	 * @param obj
+	 *            the object to be read
+	 * @return a stamp for the {@link #validate(Object, long)}, or {@code 0} if
+	 *         the object is being modified right now
+	 */
+	long tryOptimisticRead(Object obj);
+	
+	/**
+	 * Checks that the given object wasn't modified since the stamp was taken
+	 * 
+	 * @param obj
+	 *            the read object
+	 * @param stamp
+	 *            stamp returned by the {@link #tryOptimisticRead(Object)}
+	 * @return {@code true} if the state read after taking the stamp is
+	 *         consistent
+	 */
+	boolean validate(Object obj, long stamp);
+	
+	/**
+	 * Blocks modifications of the given object, waiting for the running ones
+	 * 
+	 * @param obj
+	 *            the object to be read
+	 * @return a stamp for the {@link #unlockRead(Object, long)}
+	 */
+	long readLock(Object obj);
+	
+	/**
+	 * Releases the lock taken by the {@link #readLock(Object)}
+	 * 
+	 * @param obj
+	 *            the read object
+	 * @param stamp
+	 *            stamp returned by the {@link #readLock(Object)}
+	 */
+	void unlockRead(Object obj, long stamp);
+}
@@ -0,0 +1,67 @@
+/**
+ * {@literal
+ * 
+ * Copyright (c) 2015 Egor Krasnopolin <egor.krasnopolin@googlemail.com>
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ * }
+ */
+package com.kry.copyutils;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * {@link SnapshotHook} for objects guarded by a {@link StampedLock}. Writers
+ * have to modify a guarded object under the write lock returned by
+ * {@link #getLock(Object)}.
+ */
+public abstract class StampedLockSnapshotHook implements SnapshotHook {
+	/**
+	 * Stamp for the objects which aren't guarded
+	 */
+	private final static long UNGUARDED = 1L;
+	
+	/**
+	 * Returns the lock guarding the given object
+	 * 
+	 * @param obj
+	 *            the object to be read
+	 * @return the lock, or {@code null} if the object isn't guarded
+	 */
+	protected abstract StampedLock getLock(Object obj);
+	
+	@Override
+	public long tryOptimisticRead(Object obj) {
+		StampedLock lock = getLock(obj);
+		return lock == null ? UNGUARDED : lock.tryOptimisticRead();
+	}
+	
+	@Override
+	public boolean validate(Object obj, long stamp) {
+		StampedLock lock = getLock(obj);
+		return lock == null || lock.validate(stamp);
+	}
+	
+	@Override
+	public long readLock(Object obj) {
+		StampedLock lock = getLock(obj);
+		return lock == null ? UNGUARDED : lock.readLock();
+	}
+	
+	@Override
+	public void unlockRead(Object obj, long stamp) {
+		StampedLock lock = getLock(obj);
+		if (lock != null) lock.unlockRead(stamp);
+	}
+}
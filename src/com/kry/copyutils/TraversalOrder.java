@@ -0,0 +1,42 @@
+/**
+ * {@literal
+ * 
+ * Copyright (c) 2015 Egor Krasnopolin <egor.krasnopolin@googlemail.com>
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ * 
+ * }
+ */
+package com.kry.copyutils;
+
+/**
+ * Order in which {@link CopyUtils} visits the objects of a graph and allocates
+ * their clones.
+ * 
+ * @see CopyUtils#setTraversalOrder(TraversalOrder)
+ */
+public enum TraversalOrder {
+	/**
+	 * Children of an object are copied right after the object itself. A clone
+	 * of a wide graph gets a parent and its children scattered in memory, and
+	 * a deep graph (e.g. a long linked list) may overflow the stack.
+	 */
+	DEPTH_FIRST,
+	/**
+	 * All the objects referenced by an object are allocated one after another,
+	 * before any of their own children. Elements of an array or a collection
+	 * are allocated contiguously in the index order, which is the order they
+	 * are usually read in. The recursion depth is constant.
+	 */
+	BREADTH_FIRST
+}
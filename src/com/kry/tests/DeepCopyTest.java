@@ -1,23 +1,100 @@
 package com.kry.tests;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.StampedLock;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import com.kry.copyutils.CopyUtils;
+import com.kry.copyutils.MetadataCacheStats;
+import com.kry.copyutils.StampedLockSnapshotHook;
+import com.kry.copyutils.TraversalOrder;
 
 public class DeepCopyTest {
 	ComplexObject original;
 	ComplexObject referenceClone;
 	
+	/**
+	 * {@code Cloneable} object with mostly primitive fields, whose
+	 * {@code clone()} must not be called by the deep copying
+	 */
+	static class PrimitiveDenseObject implements Cloneable {
+		int i = 1;
+		long l = 2L;
+		double d = 3.0;
+		char c = '4';
+		final int[] ints = { 5, 6 };
+		PrimitiveDenseObject next;
+		
+		@Override
+		protected Object clone() throws CloneNotSupportedException {
+			throw new CloneNotSupportedException();
+		}
+	}
+	
+	/**
+	 * {@code Cloneable} object without a constructor usable by the reflective
+	 * copying, so only the native {@code Object.clone()} can copy it
+	 */
+	static class CloneOnlyObject implements Cloneable {
+		final String name;
+		final int[] ints = { 1, 2 };
+		
+		CloneOnlyObject(String name) {
+			if (name == null) throw new IllegalArgumentException("name");
+			this.name = name;
+		}
+	}
+	
+	/**
+	 * Copies a JDK collection by a copy of the library, loaded by a throwaway
+	 * class loader
+	 * 
+	 * @return weak reference to the throwaway class loader
+	 */
+	private static WeakReference<ClassLoader> copyByIsolatedLibrary() throws Exception {
+		URL classes = CopyUtils.class.getProtectionDomain().getCodeSource().getLocation();
+		try (URLClassLoader loader = new URLClassLoader(new URL[] { classes }, null)) {
+			Class<?> isolated = loader.loadClass(CopyUtils.class.getName());
+			assertNotSame("the library isn't isolated", CopyUtils.class, isolated);
+			
+			HashMap<String, List<Integer>> map = new HashMap<>();
+			map.put("key", new ArrayList<>(Arrays.asList(1, 2)));
+			Object mapClone = isolated.getMethod("deepCopy", Object.class).invoke(null, map);
+			assertTrue("HashMap not equals to the original", map.equals(mapClone));
+			return new WeakReference<ClassLoader>(loader);
+		}
+	}
+	
 	/**
 	 * Compare two {@code ComplexObject} objects
 	 * 
@@ -32,6 +109,51 @@ public class DeepCopyTest {
 		return original != clone && original.equals(clone);
 	}
 	
+	/**
+	 * Object whose default constructor may stop working, while the other one
+	 * still works
+	 */
+	static class FragileObject {
+		static volatile boolean broken;
+		int i = 1;
+		
+		FragileObject() {
+			if (broken) throw new IllegalStateException("broken");
+		}
+		
+		FragileObject(int i) {
+			this.i = i;
+		}
+	}
+	
+	/**
+	 * Not {@code Cloneable} object, which is copied by the reflective way
+	 */
+	static class PlainObject {
+		private final int i;
+		long l = 2L;
+		boolean b = true;
+		byte by = 3;
+		short sh = 4;
+		float f = 5f;
+		String s = "6";
+		int[] ints = { 7, 8 };
+		PlainObject next;
+		
+		PlainObject(int i) {
+			this.i = i;
+		}
+	}
+	
+	/**
+	 * Object whose fields are modified together under the lock
+	 */
+	static class Account {
+		long debit;
+		long credit;
+		final long[] history = new long[2];
+	}
+	
 	@Before
 	public void setUp() throws Exception {
 		original = new ComplexObject();
@@ -50,6 +172,110 @@ public class DeepCopyTest {
 		assertTrue("Something going wrong", compareComplexObjects(original, referenceClone));
 	}
 	
+	@Test
+	public void testDeepCopyAsyncT() throws Exception {
+		CompletableFuture<ComplexObject> future = CopyUtils.deepCopyAsync(original);
+		assertTrue("it's not equals to the original",
+		        compareComplexObjects(original, future.get()));
+		
+		ExecutorService executor = CopyUtils.newBoundedExecutor(1, 1,
+		        new ThreadPoolExecutor.AbortPolicy());
+		try {
+			future = CopyUtils.deepCopyAsync(original, executor);
+			assertTrue("it's not equals to the original",
+			        compareComplexObjects(original, future.get()));
+		} finally {
+			executor.shutdown();
+		}
+		
+		Executor rejecting = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				throw new RejectedExecutionException();
+			}
+		};
+		future = CopyUtils.deepCopyAsync(original, rejecting);
+		assertTrue("rejected task isn't reported", future.isCompletedExceptionally());
+	}
+	
+	@Test
+	public void testDeepCopyAsyncDiscardedT() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		Runnable blocker = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		
+		ExecutorService executor = CopyUtils.newBoundedExecutor(1, 1,
+		        new ThreadPoolExecutor.DiscardOldestPolicy());
+		try {
+			executor.execute(blocker);
+			CompletableFuture<ComplexObject> oldest = CopyUtils.deepCopyAsync(original, executor);
+			CompletableFuture<ComplexObject> newest = CopyUtils.deepCopyAsync(original, executor);
+			assertTrue("discarded task isn't reported", oldest.isCancelled());
+			release.countDown();
+			assertTrue("it's not equals to the original",
+			        compareComplexObjects(original, newest.get()));
+		} finally {
+			release.countDown();
+			executor.shutdown();
+		}
+		
+		executor = CopyUtils.newBoundedExecutor(1, 0, new ThreadPoolExecutor.DiscardPolicy());
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						Thread.sleep(1000);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+			CompletableFuture<ComplexObject> future = CopyUtils.deepCopyAsync(original, executor);
+			assertTrue("discarded task isn't reported", future.isCancelled());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void testDeepCopyBreadthFirstT() throws ReflectiveOperationException {
+		TraversalOrder order = CopyUtils.getTraversalOrder();
+		CopyUtils.setTraversalOrder(TraversalOrder.BREADTH_FIRST);
+		try {
+			ComplexObject testClone = CopyUtils.deepCopy(original);
+			assertTrue("it's not equals to the original",
+			        compareComplexObjects(original, testClone));
+			
+			original.toComplicate();
+			testClone = CopyUtils.deepCopy(original);
+			assertTrue("Something going wrong", compareComplexObjects(original, testClone));
+			
+			// too deep for the recursion
+			PlainObject head = new PlainObject(0);
+			PlainObject tail = head;
+			for (int i = 1; i < 100000; i++) {
+				tail.next = new PlainObject(i);
+				tail = tail.next;
+			}
+			PlainObject headClone = CopyUtils.deepCopy(head);
+			for (PlainObject obj = head; obj != null; obj = obj.next, headClone = headClone.next) {
+				assertNotSame("it's just a shallow copy", obj, headClone);
+				assertEquals(obj.i, headClone.i);
+			}
+		} finally {
+			CopyUtils.setTraversalOrder(order);
+		}
+	}
+	
 	@Test
 	public void testDeepCopyByCommonWayT() throws ReflectiveOperationException {
 		ComplexObject testClone = CopyUtils.deepCopyByCommonWay(original);
@@ -64,6 +290,20 @@ public class DeepCopyTest {
 		assertTrue("Something going wrong", compareComplexObjects(original, testClone));
 	}
 	
+	@Test
+	public void testDeepCopyOfLargeGraphT() throws ReflectiveOperationException {
+		// enough distinct objects for their identity hash codes to collide
+		int size = 300000;
+		ArrayList<int[]> list = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			list.add(new int[] { i });
+		}
+		ArrayList<int[]> copy = CopyUtils.deepCopy(list);
+		for (int i = 0; i < size; i++) {
+			assertTrue("distinct objects are merged into one copy", copy.get(i)[0] == i);
+		}
+	}
+	
 	@Test
 	public void testDeepCopyT() throws ReflectiveOperationException {
 		ComplexObject testClone = CopyUtils.deepCopy(original);
@@ -78,6 +318,318 @@ public class DeepCopyTest {
 		assertTrue("Something going wrong", compareComplexObjects(original, testClone));
 	}
 	
+	@Test
+	public void testDeepCopyOfCloneableT() throws ReflectiveOperationException {
+		PrimitiveDenseObject obj = new PrimitiveDenseObject();
+		obj.next = new PrimitiveDenseObject();
+		obj.next.next = obj;
+		obj.next.i = 10;
+		
+		PrimitiveDenseObject testClone = CopyUtils.deepCopy(obj);
+		assertNotSame("it's the original itself", obj, testClone);
+		assertEquals(obj.i, testClone.i);
+		assertEquals(obj.l, testClone.l);
+		assertEquals(obj.d, testClone.d, 0);
+		assertEquals(obj.c, testClone.c);
+		assertNotSame("it's just a shallow copy", obj.ints, testClone.ints);
+		assertTrue("int[] not equals to the original", Arrays.equals(obj.ints, testClone.ints));
+		assertNotSame("it's just a shallow copy", obj.next, testClone.next);
+		assertEquals(obj.next.i, testClone.next.i);
+		assertTrue("cycle isn't preserved", testClone.next.next == testClone);
+		
+		CloneOnlyObject cloneOnly = new CloneOnlyObject("name");
+		CloneOnlyObject cloneOnlyCopy = CopyUtils.deepCopy(cloneOnly);
+		assertNotSame("it's the original itself", cloneOnly, cloneOnlyCopy);
+		assertEquals(cloneOnly.name, cloneOnlyCopy.name);
+		assertNotSame("it's just a shallow copy", cloneOnly.ints, cloneOnlyCopy.ints);
+		assertTrue("int[] not equals to the original",
+		        Arrays.equals(cloneOnly.ints, cloneOnlyCopy.ints));
+	}
+	
+	@Test
+	public void testDeepCopyPromotedT() throws Exception {
+		int threshold = CopyUtils.getPromotionThreshold();
+		CopyUtils.setPromotionThreshold(0);
+		try {
+			PlainObject obj = new PlainObject(1);
+			obj.next = new PlainObject(10);
+			obj.next.next = obj;
+			
+			CopyUtils.deepCopy(obj);
+			for (int i = 0; i < 500 && !CopyUtils.isPromoted(PlainObject.class); i++) {
+				Thread.sleep(10);
+			}
+			assertTrue("the class isn't promoted", CopyUtils.isPromoted(PlainObject.class));
+			
+			PlainObject testClone = CopyUtils.deepCopy(obj);
+			assertNotSame("it's the original itself", obj, testClone);
+			assertEquals(obj.i, testClone.i);
+			assertEquals(obj.next.i, testClone.next.i);
+			assertEquals(obj.l, testClone.l);
+			assertEquals(obj.b, testClone.b);
+			assertEquals(obj.by, testClone.by);
+			assertEquals(obj.sh, testClone.sh);
+			assertEquals(obj.f, testClone.f, 0);
+			assertEquals(obj.s, testClone.s);
+			assertNotSame("it's just a shallow copy", obj.ints, testClone.ints);
+			assertTrue("int[] not equals to the original", Arrays.equals(obj.ints, testClone.ints));
+			assertTrue("cycle isn't preserved", testClone.next.next == testClone);
+		} finally {
+			CopyUtils.setPromotionThreshold(threshold);
+		}
+	}
+	
+	@Test
+	public void testPromotionDisabledT() throws Exception {
+		int threshold = CopyUtils.getPromotionThreshold();
+		CopyUtils.setPromotionThreshold(Integer.MAX_VALUE);
+		try {
+			CopyUtils.clearMetadataCaches();
+			CopyUtils.deepCopy(new PlainObject(1));
+			for (MetadataCacheStats stats : CopyUtils.getMetadataCacheStats()) {
+				if ("copyCounts".equals(stats.getName())) {
+					assertEquals("copies are counted: " + stats, 0, stats.getSize());
+				}
+			}
+			assertFalse("the class is promoted", CopyUtils.isPromoted(PlainObject.class));
+		} finally {
+			CopyUtils.setPromotionThreshold(threshold);
+		}
+	}
+	
+	@Test
+	public void testDeepCopyDemotedT() throws Exception {
+		int threshold = CopyUtils.getPromotionThreshold();
+		CopyUtils.setPromotionThreshold(0);
+		try {
+			CopyUtils.deepCopy(new FragileObject());
+			for (int i = 0; i < 500 && !CopyUtils.isPromoted(FragileObject.class); i++) {
+				Thread.sleep(10);
+			}
+			assertTrue("the class isn't promoted", CopyUtils.isPromoted(FragileObject.class));
+			
+			// the copier's constructor throws now, another one has to be found
+			FragileObject.broken = true;
+			FragileObject obj = new FragileObject(5);
+			FragileObject testClone = CopyUtils.deepCopy(obj);
+			assertNotSame("it's the original itself", obj, testClone);
+			assertEquals(obj.i, testClone.i);
+		} finally {
+			FragileObject.broken = false;
+			CopyUtils.setPromotionThreshold(threshold);
+		}
+	}
+	
+	@Test
+	public void testDeepCopySnapshotT() throws Exception {
+		final Account account = new Account();
+		final StampedLock lock = new StampedLock();
+		StampedLockSnapshotHook hook = new StampedLockSnapshotHook() {
+			@Override
+			protected StampedLock getLock(Object obj) {
+				return obj == account || obj == account.history ? lock : null;
+			}
+		};
+		
+		final AtomicBoolean running = new AtomicBoolean(true);
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				while (running.get()) {
+					long stamp = lock.writeLock();
+					try {
+						account.debit++;
+						account.credit++;
+						account.history[0]++;
+						account.history[1]++;
+					} finally {
+						lock.unlockWrite(stamp);
+					}
+				}
+			}
+		};
+		writer.start();
+		try {
+			for (int i = 0; i < 1000; i++) {
+				Account testClone = CopyUtils.deepCopySnapshot(account, hook);
+				assertEquals("inconsistent copy", testClone.debit, testClone.credit);
+				assertEquals("inconsistent copy", testClone.history[0], testClone.history[1]);
+			}
+		} finally {
+			running.set(false);
+			writer.join();
+		}
+		
+		Account testClone = CopyUtils.deepCopySnapshot(account, hook);
+		assertEquals(account.debit, testClone.debit);
+		assertTrue("long[] not equals to the original",
+		        Arrays.equals(account.history, testClone.history));
+		assertTrue("Something going wrong",
+		        compareComplexObjects(original, CopyUtils.deepCopySnapshot(original, hook)));
+	}
+	
+	@Test
+	public void testDeepCopyTreeT() throws ReflectiveOperationException {
+		PrimitiveDenseObject obj = new PrimitiveDenseObject();
+		obj.next = new PrimitiveDenseObject();
+		obj.next.i = 10;
+		
+		PrimitiveDenseObject testClone = CopyUtils.deepCopyTree(obj, true);
+		assertNotSame("it's the original itself", obj, testClone);
+		assertNotSame("it's just a shallow copy", obj.next, testClone.next);
+		assertEquals(obj.next.i, testClone.next.i);
+		assertTrue("int[] not equals to the original",
+		        Arrays.equals(obj.next.ints, testClone.next.ints));
+		
+		Vector<Object> vector = new Vector<>();
+		vector.add("first");
+		vector.add(new ArrayList<Object>(Arrays.asList("second", "third")));
+		
+		Object vectorClone = CopyUtils.deepCopyTree(vector);
+		assertTrue("Vector not equals to the original", vector.equals(vectorClone));
+	}
+	
+	@Test
+	public void testDeepCopyTreeBreadthFirstT() throws ReflectiveOperationException {
+		TraversalOrder order = CopyUtils.getTraversalOrder();
+		CopyUtils.setTraversalOrder(TraversalOrder.BREADTH_FIRST);
+		try {
+			// shared objects aren't cycles
+			List<String> shared = new ArrayList<>(Arrays.asList("first", "second"));
+			Vector<Object> vector = new Vector<>();
+			vector.add("N/A");
+			vector.add("N/A");
+			vector.add(Integer.valueOf(1));
+			vector.add(Integer.valueOf(1));
+			vector.add(shared);
+			vector.add(shared);
+			
+			Object vectorClone = CopyUtils.deepCopyTree(vector, true);
+			assertTrue("Vector not equals to the original", vector.equals(vectorClone));
+			
+			PrimitiveDenseObject obj = new PrimitiveDenseObject();
+			obj.next = new PrimitiveDenseObject();
+			obj.next.next = obj;
+			try {
+				CopyUtils.deepCopyTree(obj, true);
+				fail("cycle isn't detected");
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		} finally {
+			CopyUtils.setTraversalOrder(order);
+		}
+	}
+	
+	@Test
+	public void testDeepCopyTreeOfJdkCollectionsT() throws ReflectiveOperationException {
+		TraversalOrder order = CopyUtils.getTraversalOrder();
+		try {
+			for (TraversalOrder o : TraversalOrder.values()) {
+				CopyUtils.setTraversalOrder(o);
+				
+				// nodes linked both ways
+				assertTreeCopied(new LinkedList<Object>(Arrays.asList("first", "second", "third")));
+				Map<String, Object> linkedMap = new LinkedHashMap<>();
+				linkedMap.put("first", 1);
+				linkedMap.put("second", new ArrayList<Object>(Arrays.asList("third")));
+				assertTreeCopied(linkedMap);
+				
+				// cached views referring back to the collection
+				Map<String, Object> map = new HashMap<>(linkedMap);
+				for (String key : map.keySet())
+					assertNotNull(key);
+				assertTreeCopied(map);
+				Set<String> set = new HashSet<>(Arrays.asList("first", "second"));
+				for (String element : set)
+					assertNotNull(element);
+				assertTreeCopied(set);
+				
+				// a cycle through an untracked object is still detected
+				Object[] array = new Object[1];
+				array[0] = new LinkedList<Object>(Arrays.asList((Object) array));
+				try {
+					CopyUtils.deepCopyTree(array, true);
+					fail("cycle isn't detected in the " + o + " order");
+				} catch (IllegalArgumentException e) {
+					// expected
+				}
+			}
+		} finally {
+			CopyUtils.setTraversalOrder(order);
+		}
+	}
+	
+	private static void assertTreeCopied(Object obj) throws ReflectiveOperationException {
+		for (Object clone : Arrays.asList(CopyUtils.deepCopyTree(obj, true),
+		        CopyUtils.deepCopyTree(obj, false), CopyUtils.deepCopyTree(obj))) {
+			assertNotSame("it's the original itself", obj, clone);
+			assertEquals(obj.getClass() + " not equals to the original", obj, clone);
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testDeepCopyTreeWithCycleT() throws ReflectiveOperationException {
+		PrimitiveDenseObject obj = new PrimitiveDenseObject();
+		obj.next = new PrimitiveDenseObject();
+		obj.next.next = obj;
+		
+		CopyUtils.deepCopyTree(obj, true);
+	}
+	
+	@Test
+	public void testLibraryLoaderCollectedT() throws Exception {
+		WeakReference<ClassLoader> loader = copyByIsolatedLibrary();
+		for (int i = 0; i < 100 && loader.get() != null; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertNull("metadata of the JDK classes pins the library's loader", loader.get());
+	}
+	
+	@Test
+	public void testMetadataCachesT() throws Exception {
+		ComplexObject testClone;
+		int cacheSize = CopyUtils.getMetadataCacheSize();
+		CopyUtils.setMetadataCacheSize(2);
+		try {
+			testClone = CopyUtils.deepCopy(original);
+			assertTrue("it's not equals to the original",
+			        compareComplexObjects(original, testClone));
+			
+			long evictions = 0;
+			for (MetadataCacheStats stats : CopyUtils.getMetadataCacheStats()) {
+				assertEquals(2, stats.getMaxSize());
+				assertTrue("cache isn't bounded: " + stats, stats.getSize() <= 2);
+				evictions += stats.getEvictions();
+			}
+			assertTrue("nothing is evicted", evictions > 0);
+		} finally {
+			CopyUtils.setMetadataCacheSize(cacheSize);
+		}
+		
+		int threshold = CopyUtils.getPromotionThreshold();
+		CopyUtils.setPromotionThreshold(0);
+		try {
+			CopyUtils.deepCopy(new PlainObject(1));
+			for (int i = 0; i < 500 && !CopyUtils.isPromoted(PlainObject.class); i++) {
+				Thread.sleep(10);
+			}
+			assertTrue("the class isn't promoted", CopyUtils.isPromoted(PlainObject.class));
+		} finally {
+			CopyUtils.setPromotionThreshold(threshold);
+		}
+		
+		CopyUtils.clearMetadataCaches();
+		assertFalse("the class is still promoted", CopyUtils.isPromoted(PlainObject.class));
+		for (MetadataCacheStats stats : CopyUtils.getMetadataCacheStats()) {
+			assertEquals("cache isn't cleared: " + stats, 0, stats.getSize());
+		}
+		
+		testClone = CopyUtils.deepCopy(original);
+		assertTrue("Something going wrong", compareComplexObjects(original, testClone));
+	}
+	
 	@Test
 	public void testDeepCopyWithArraysT() throws ReflectiveOperationException {
 		int[] intArray = { 10, 127, 10000 };
@@ -0,0 +1,200 @@
+package com.kry.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.kry.copyutils.CopyUtils;
+import com.kry.copyutils.PrototypePool;
+
+public class PrototypePoolTest {
+	private static final int CAPACITY = 4;
+	
+	ComplexObject prototype;
+	PrototypePool<ComplexObject> pool;
+	
+	/**
+	 * Waits until the pool is refilled
+	 * 
+	 * @param pool
+	 *            checked pool
+	 * @param expected
+	 *            expected number of the ready copies
+	 */
+	private static void awaitReady(PrototypePool<?> pool, int expected) throws InterruptedException {
+		for (int i = 0; i < 500 && pool.readyCount() < expected; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals("the pool isn't refilled", expected, pool.readyCount());
+	}
+	
+	/**
+	 * Takes copies until the pool is refilled
+	 * 
+	 * @param pool
+	 *            checked pool
+	 * @param expected
+	 *            expected number of the ready copies
+	 */
+	private static void takeUntilReady(PrototypePool<?> pool, int expected) throws Exception {
+		for (int i = 0; i < 500 && pool.readyCount() < expected; i++) {
+			pool.take();
+			Thread.sleep(10);
+		}
+		assertEquals("the pool isn't refilled", expected, pool.readyCount());
+	}
+	
+	@Before
+	public void setUp() throws Exception {
+		prototype = new ComplexObject();
+		pool = new PrototypePool<>(prototype, CAPACITY);
+	}
+	
+	@Test
+	public void testTakeT() throws Exception {
+		awaitReady(pool, CAPACITY);
+		
+		ComplexObject first = pool.take();
+		ComplexObject second = pool.take();
+		assertNotSame("it's the prototype itself", prototype, first);
+		assertNotSame("the same copy is taken twice", first, second);
+		assertTrue("it's not equals to the prototype", prototype.equals(first));
+		assertTrue("it's not equals to the prototype", prototype.equals(second));
+		
+		awaitReady(pool, CAPACITY);
+	}
+	
+	@Test
+	public void testTakeFromEmptyPoolT() throws Exception {
+		awaitReady(pool, CAPACITY);
+		for (int i = 0; i < CAPACITY * 2; i++) {
+			assertTrue("it's not equals to the prototype", prototype.equals(pool.take()));
+		}
+	}
+	
+	@Test
+	public void testSetPrototypeT() throws Exception {
+		awaitReady(pool, CAPACITY);
+		
+		ComplexObject newPrototype = new ComplexObject();
+		newPrototype.toComplicate();
+		assertFalse("prototypes are equal", prototype.equals(newPrototype));
+		
+		pool.setPrototype(newPrototype);
+		for (int i = 0; i < CAPACITY * 2; i++) {
+			assertTrue("a copy of the previous prototype", newPrototype.equals(pool.take()));
+		}
+	}
+	
+	@Test
+	public void testPrototypeChangedAfterRegistrationT() throws Exception {
+		ComplexObject registered = new ComplexObject();
+		PrototypePool<ComplexObject> ownPool = new PrototypePool<>(registered, 1);
+		registered.toComplicate();
+		
+		assertTrue("the pool doesn't hold its own prototype", prototype.equals(ownPool.take()));
+	}
+	
+	@Test
+	public void testRefillAfterDroppedCopiesT() throws Exception {
+		final AtomicBoolean dropping = new AtomicBoolean(true);
+		Executor executor = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				// drops the task silently, without cancelling it
+				if (!dropping.get()) new Thread(command).start();
+			}
+		};
+		PrototypePool<ComplexObject> droppingPool = new PrototypePool<>(prototype, CAPACITY,
+		        executor, 50, TimeUnit.MILLISECONDS);
+		assertEquals("dropped copies are ready", 0, droppingPool.readyCount());
+		assertTrue("it's not equals to the prototype", prototype.equals(droppingPool.take()));
+		
+		dropping.set(false);
+		takeUntilReady(droppingPool, CAPACITY);
+	}
+	
+	@Test
+	public void testRefillByDiscardingExecutorT() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = CopyUtils.newBoundedExecutor(1, 1,
+		        new ThreadPoolExecutor.DiscardOldestPolicy());
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+			// the refills discard each other while the only thread is busy
+			PrototypePool<ComplexObject> discardingPool = new PrototypePool<>(prototype,
+			        CAPACITY, executor);
+			assertTrue("it's not equals to the prototype",
+			        prototype.equals(discardingPool.take()));
+			
+			release.countDown();
+			takeUntilReady(discardingPool, CAPACITY);
+		} finally {
+			release.countDown();
+			executor.shutdown();
+		}
+	}
+	
+	@Test
+	public void testRefillByCallerRunsExecutorT() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger inPlace = new AtomicInteger();
+		ExecutorService executor = CopyUtils.newBoundedExecutor(1, 1,
+		        new ThreadPoolExecutor.CallerRunsPolicy() {
+			        @Override
+			        public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+				        inPlace.incrementAndGet();
+				        super.rejectedExecution(r, e);
+			        }
+		        });
+		try {
+			Runnable blocker = new Runnable() {
+				@Override
+				public void run() {
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			};
+			// the only thread and the queue are busy, every copy runs in place
+			executor.execute(blocker);
+			executor.execute(blocker);
+			
+			PrototypePool<ComplexObject> callerRunsPool = new PrototypePool<>(prototype,
+			        CAPACITY, executor);
+			assertEquals("too many copies in the calling thread", 1, inPlace.get());
+			assertTrue("it's not equals to the prototype",
+			        prototype.equals(callerRunsPool.take()));
+			assertEquals("too many copies in the calling thread", 2, inPlace.get());
+			
+			release.countDown();
+			takeUntilReady(callerRunsPool, CAPACITY);
+		} finally {
+			release.countDown();
+			executor.shutdown();
+		}
+	}
+}